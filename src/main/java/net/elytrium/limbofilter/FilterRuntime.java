@@ -0,0 +1,80 @@
+/*
+ * Copyright (C) 2021 - 2025 Elytrium
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.elytrium.limbofilter;
+
+import net.elytrium.limboapi.api.Limbo;
+import net.elytrium.limboapi.api.chunk.VirtualWorld;
+import net.elytrium.limbofilter.cache.CachedPackets;
+import net.elytrium.limbofilter.captcha.CaptchaGenerator;
+
+// The filter limbo with everything sent in it, built from one config and replaced as a whole on reload.
+public class FilterRuntime {
+
+  private final VirtualWorld filterWorld;
+  private final Limbo filterServer;
+  private final CachedPackets packets;
+  private final CaptchaGenerator generator;
+  private final long worldFileLastModified;
+
+  public FilterRuntime(VirtualWorld filterWorld, Limbo filterServer, CachedPackets packets, CaptchaGenerator generator, long worldFileLastModified) {
+    this.filterWorld = filterWorld;
+    this.filterServer = filterServer;
+    this.packets = packets;
+    this.generator = generator;
+    this.worldFileLastModified = worldFileLastModified;
+  }
+
+  public VirtualWorld getFilterWorld() {
+    return this.filterWorld;
+  }
+
+  public Limbo getFilterServer() {
+    return this.filterServer;
+  }
+
+  public CachedPackets getPackets() {
+    return this.packets;
+  }
+
+  public CaptchaGenerator getGenerator() {
+    return this.generator;
+  }
+
+  public long getWorldFileLastModified() {
+    return this.worldFileLastModified;
+  }
+
+  public void dispose() {
+    this.dispose(null);
+  }
+
+  // Disposes only the parts which were not reused by the replacement.
+  public void dispose(FilterRuntime replacement) {
+    if (replacement == null || replacement.generator != this.generator) {
+      this.generator.shutdown();
+    }
+
+    if (replacement == null || replacement.filterServer != this.filterServer) {
+      this.filterServer.dispose();
+    }
+
+    if (replacement == null || replacement.packets != this.packets) {
+      this.packets.dispose();
+    }
+  }
+}
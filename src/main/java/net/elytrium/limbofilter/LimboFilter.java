@@ -21,6 +21,7 @@ import com.google.inject.Inject;
 import com.velocitypowered.api.command.CommandManager;
 import com.velocitypowered.api.event.Subscribe;
 import com.velocitypowered.api.event.proxy.ProxyInitializeEvent;
+import com.velocitypowered.api.event.proxy.ProxyShutdownEvent;
 import com.velocitypowered.api.network.ProtocolVersion;
 import com.velocitypowered.api.plugin.Dependency;
 import com.velocitypowered.api.plugin.Plugin;
@@ -29,17 +30,26 @@ import com.velocitypowered.api.plugin.annotation.DataDirectory;
 import com.velocitypowered.api.proxy.Player;
 import com.velocitypowered.api.proxy.ProxyServer;
 import com.velocitypowered.api.scheduler.ScheduledTask;
+import com.velocitypowered.proxy.config.VelocityConfiguration;
 import com.velocitypowered.proxy.console.VelocityConsole;
 import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.IOError;
 import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.net.InetAddress;
+import java.net.InetSocketAddress;
 import java.net.UnknownHostException;
+import java.nio.file.Files;
 import java.nio.file.Path;
+import java.util.LinkedHashMap;
 import java.util.Map;
 import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.concurrent.TimeUnit;
 import net.elytrium.commons.kyori.serialization.Serializer;
 import net.elytrium.commons.kyori.serialization.Serializers;
@@ -54,17 +64,32 @@ import net.elytrium.limboapi.api.protocol.packets.PacketMapping;
 import net.elytrium.limboapi.api.protocol.packets.data.MapData;
 import net.elytrium.limboapi.api.protocol.packets.data.MapPalette;
 import net.elytrium.limbofilter.cache.CachedPackets;
+import net.elytrium.limbofilter.cache.LocalVerifiedPlayerBackend;
+import net.elytrium.limbofilter.cache.VerifiedPlayerArchive;
+import net.elytrium.limbofilter.cache.VerifiedPlayerBackend;
+import net.elytrium.limbofilter.cache.VerifiedPlayerCache;
+import net.elytrium.limbofilter.cache.VerifiedPlayerStore;
 import net.elytrium.limbofilter.captcha.CaptchaGenerator;
 import net.elytrium.limbofilter.captcha.CaptchaHolder;
+import net.elytrium.limbofilter.check.PreSpawnCheck;
+import net.elytrium.limbofilter.cluster.ClusterNode;
+import net.elytrium.limbofilter.cluster.ClusterStatistics;
+import net.elytrium.limbofilter.cluster.ClusterVerifiedPlayerBackend;
 import net.elytrium.limbofilter.commands.LimboFilterCommand;
 import net.elytrium.limbofilter.commands.SendFilterCommand;
 import net.elytrium.limbofilter.handler.BotFilterSessionHandler;
+import net.elytrium.limbofilter.handler.FallingCheckTrajectory;
 import net.elytrium.limbofilter.listener.FilterListener;
+import net.elytrium.limbofilter.listener.PcapReplay;
+import net.elytrium.limbofilter.listener.PingSource;
+import net.elytrium.limbofilter.listener.TcpInfoProbe;
 import net.elytrium.limbofilter.listener.TcpListener;
 import net.elytrium.limbofilter.protocol.packets.Interact;
 import net.elytrium.limbofilter.protocol.packets.SetEntityMetadata;
 import net.elytrium.limbofilter.protocol.packets.SpawnEntity;
 import net.elytrium.limbofilter.stats.Statistics;
+import net.elytrium.limbofilter.utils.AddressUtils;
+import net.elytrium.limbofilter.utils.AsnTable;
 import net.elytrium.pcap.PcapException;
 import net.kyori.adventure.text.Component;
 import net.kyori.adventure.text.serializer.ComponentSerializer;
@@ -91,31 +116,73 @@ import org.slf4j.Logger;
 )
 public class LimboFilter {
 
+  // Added to the longest session time out before the previous filter limbo is disposed.
+  private static final long PREVIOUS_RUNTIME_DISPOSE_MARGIN_MILLIS = 15000;
+  // Fields of the "main" section each part of the filter limbo is built from, the kick messages are in STRINGS.
+  private static final String[] CAPTCHA_SETTINGS = Settings.getFieldNames("CAPTCHA_GENERATOR", "FRAMED_CAPTCHA");
+  private static final String[] WORLD_SETTINGS = Settings.getFieldNames(
+      "BOTFILTER_DIMENSION", "COORDS", "FRAMED_CAPTCHA", "LOAD_WORLD", "WORLD_FILE_PATH", "WORLD_FILE_TYPE", "WORLD_COORDS",
+      "WORLD_LIGHT_LEVEL", "WORLD_OVERRIDE_BLOCK_LIGHT_LEVEL", "MAX_PING", "WORLD_TICKS", "GAME_MODE"
+  );
+  private static final String[] PACKETS_SETTINGS = Settings.getFieldNames(
+      "SERIALIZER", "PREFIX", "STRINGS", "BOTFILTER_DIMENSION", "CAPTCHA_ATTEMPTS", "CAPTCHA_LEFT_HAND", "COORDS", "FALLING_CHECK_TICKS",
+      "FALLING_COORDS", "FRAMED_CAPTCHA"
+  );
+  // Fields the rest of the reload depends on.
+  private static final String[] SERIALIZER_SETTINGS = Settings.getFieldNames("SERIALIZER");
+  private static final String[] PRE_SPAWN_CHECK_SETTINGS = Settings.getFieldNames("PRE_SPAWN_CHECK");
+  private static final String[] VERIFIED_MATCH_SETTINGS = Settings.getFieldNames(
+      "VERIFIED_ADDRESS_MATCH", "VERIFIED_IPV4_PREFIX", "VERIFIED_IPV6_PREFIX", "VERIFIED_ASN_FILE"
+  );
+  private static final String[] CLUSTER_SETTINGS = Settings.getFieldNames("CLUSTER");
+  private static final String[] WHITELIST_SETTINGS = Settings.getFieldNames("WHITELISTED_PLAYERS");
+  private static final String[] CAPTCHA_REFRESH_SETTINGS = Settings.getFieldNames("CAPTCHA_REGENERATE_RATE");
+  private static final String[] COMMAND_SETTINGS = Settings.getFieldNames("SERIALIZER", "PREFIX", "STRINGS", "COMMAND_PERMISSION_STATE");
+  private static final String[] SUBNET_LIMITER_SETTINGS = Settings.getFieldNames("SERIALIZER", "PREFIX", "STRINGS", "SUBNET_RATE_LIMIT");
+  private static final String[] TCP_LISTENER_SETTINGS = Settings.getFieldNames("TCP_LISTENER");
+  private static final String[] PURGE_SETTINGS = Settings.getFieldNames("PURGE_CACHE_MILLIS");
+  private static final String[] LOG_ENABLER_SETTINGS = Settings.getFieldNames("LOG_ENABLER_CHECK_REFRESH_RATE");
+
   @MonotonicNonNull
   private static Logger LOGGER;
   @MonotonicNonNull
   private static Serializer SERIALIZER;
 
-  private final Map<String, CachedUser> cachedFilterChecks = new ConcurrentHashMap<>();
+  private final VerifiedPlayerCache cachedFilterChecks;
+  private final VerifiedPlayerBackend localVerifiedPlayers;
+  private final Set<String> whitelistedPlayers = ConcurrentHashMap.newKeySet();
 
   private final Path dataDirectory;
   private final File configFile;
   private final Metrics.Factory metricsFactory;
   private final ProxyServer server;
   private final Statistics statistics;
+  private final PreSpawnCheck preSpawnCheck;
+  private final VerifiedPlayerStore verifiedPlayerStore;
   private final LimboFactory limboFactory;
   private final PacketFactory packetFactory;
   private final Level initialLogLevel;
 
-  private Limbo filterServer;
-  private VirtualWorld filterWorld;
+  private final ExecutorService reloadExecutor = Executors.newSingleThreadExecutor(runnable -> {
+    Thread thread = new Thread(runnable, "LimboFilter Reload");
+    thread.setContextClassLoader(LimboFilter.class.getClassLoader());
+    thread.setDaemon(true);
+    return thread;
+  });
+
+  private volatile FilterRuntime runtime;
+  private Settings loadedSettings;
+  private FilterListener filterListener;
   private ScheduledTask refreshCaptchaTask;
   private ScheduledTask purgeCacheTask;
   private ScheduledTask logEnablerTask;
-  private CaptchaGenerator generator;
-  private CachedPackets packets;
   private boolean logsDisabled;
   private TcpListener tcpListener;
+  private PcapReplay pcapReplay;
+  private ClusterNode clusterNode;
+  private volatile ClusterStatistics clusterStatistics;
+  private ScheduledTask clusterStatisticsTask;
+  private volatile VerifiedPlayerBackend verifiedPlayers;
 
   @Inject
   public LimboFilter(Logger logger, ProxyServer server, Metrics.Factory metricsFactory, @DataDirectory Path dataDirectory) {
@@ -126,6 +193,12 @@ public class LimboFilter {
     this.dataDirectory = dataDirectory;
     this.configFile = this.dataDirectory.resolve("config.yml").toFile();
     this.statistics = new Statistics();
+    this.preSpawnCheck = new PreSpawnCheck();
+    this.verifiedPlayerStore = new VerifiedPlayerStore(this.dataDirectory.resolve("verified-players.txt"));
+    long[] cacheKey = this.verifiedPlayerStore.readKey();
+    this.cachedFilterChecks = new VerifiedPlayerCache(cacheKey[0], cacheKey[1]);
+    this.localVerifiedPlayers = new LocalVerifiedPlayerBackend(this.cachedFilterChecks, this.verifiedPlayerStore);
+    this.verifiedPlayers = this.localVerifiedPlayers;
 
     this.limboFactory = (LimboFactory) this.server.getPluginManager().getPlugin("limboapi").flatMap(PluginContainer::getInstance).orElseThrow();
     this.packetFactory = this.limboFactory.getPacketFactory();
@@ -136,17 +209,27 @@ public class LimboFilter {
   public void onProxyInitialization(ProxyInitializeEvent event) {
     Settings.IMP.setLogger(LOGGER);
 
-    this.reload();
+    this.reload().join();
+
+    if (Settings.IMP.MAIN.SAVE_VERIFIED_PLAYERS) {
+      this.verifiedPlayerStore.load(entry -> this.cachedFilterChecks.putIfAbsent(entry.getUsername(), entry.getAddress(), entry.getExpiry()))
+          .whenComplete((result, throwable) -> {
+            if (throwable == null) {
+              LOGGER.info("Loaded verified players, {} in cache", this.cachedFilterChecks.size());
+            } else {
+              LOGGER.error("Failed to load verified players", throwable);
+            }
+          });
+    }
 
     Metrics metrics = this.metricsFactory.make(this, 13699);
-    Settings.MAIN main = Settings.IMP.MAIN;
-    metrics.addCustomChart(new SimplePie("filter_type", () -> String.valueOf(main.CHECK_STATE)));
-    metrics.addCustomChart(new SimplePie("load_world", () -> String.valueOf(main.LOAD_WORLD)));
-    metrics.addCustomChart(new SimplePie("check_brand", () -> String.valueOf(main.CHECK_CLIENT_BRAND)));
-    metrics.addCustomChart(new SimplePie("check_settings", () -> String.valueOf(main.CHECK_CLIENT_SETTINGS)));
+    metrics.addCustomChart(new SimplePie("filter_type", () -> String.valueOf(Settings.IMP.MAIN.CHECK_STATE)));
+    metrics.addCustomChart(new SimplePie("load_world", () -> String.valueOf(Settings.IMP.MAIN.LOAD_WORLD)));
+    metrics.addCustomChart(new SimplePie("check_brand", () -> String.valueOf(Settings.IMP.MAIN.CHECK_CLIENT_BRAND)));
+    metrics.addCustomChart(new SimplePie("check_settings", () -> String.valueOf(Settings.IMP.MAIN.CHECK_CLIENT_SETTINGS)));
     metrics.addCustomChart(
-        new SimplePie("has_backplate",
-            () -> String.valueOf(!main.CAPTCHA_GENERATOR.BACKPLATE_PATHS.isEmpty() && !main.CAPTCHA_GENERATOR.BACKPLATE_PATHS.get(0).isEmpty()))
+        new SimplePie("has_backplate", () -> String.valueOf(
+            !Settings.IMP.MAIN.CAPTCHA_GENERATOR.BACKPLATE_PATHS.isEmpty() && !Settings.IMP.MAIN.CAPTCHA_GENERATOR.BACKPLATE_PATHS.get(0).isEmpty()))
     );
     metrics.addCustomChart(new SingleLineChart("pings", () -> Math.toIntExact(this.statistics.getPings()))); // Total pings
     metrics.addCustomChart(new SingleLineChart("connections", () -> Math.toIntExact(this.statistics.getConnections())));
@@ -163,89 +246,273 @@ public class LimboFilter {
     Configurator.setLevel(consoleLogger.getName(), consoleLogger.getLevel());
   }
 
-  public void reload() {
-    Settings.IMP.reload(this.configFile, Settings.IMP.PREFIX);
+  @Subscribe
+  public void onProxyShutdown(ProxyShutdownEvent event) {
+    this.stopCluster();
+    this.verifiedPlayerStore.close();
+  }
 
-    ComponentSerializer<Component, Component, String> serializer = Settings.IMP.SERIALIZER.getSerializer();
-    if (serializer == null) {
-      LOGGER.warn("The specified serializer could not be founded, using default. (LEGACY_AMPERSAND)");
-      setSerializer(new Serializer(Objects.requireNonNull(Serializers.LEGACY_AMPERSAND.getSerializer())));
-    } else {
-      setSerializer(new Serializer(serializer));
+  // The new limbo, world, packets and captchas are built on the reload thread while the previous ones keep serving players,
+  // then they are swapped at once.
+  public CompletableFuture<Void> reload() {
+    return CompletableFuture.runAsync(this::reloadSync, this.reloadExecutor);
+  }
+
+  private void reloadSync() {
+    long startTime = System.nanoTime();
+
+    Settings settings = new Settings();
+    settings.setLogger(LOGGER);
+    settings.reload(this.configFile, Settings.IMP.PREFIX);
+    // Everything is considered changed on the first load.
+    Settings previousSettings = this.loadedSettings;
+    Set<String> changed = previousSettings == null ? null : Settings.getChangedFields(previousSettings, settings);
+
+    // Until the swap below, the filter limbo is only built from the new config, while the players keep using Settings.IMP.
+    Serializer serializer = getSerializer();
+    if (isChanged(changed, SERIALIZER_SETTINGS)) {
+      ComponentSerializer<Component, Component, String> componentSerializer = settings.SERIALIZER.getSerializer();
+      if (componentSerializer == null) {
+        LOGGER.warn("The specified serializer could not be founded, using default. (LEGACY_AMPERSAND)");
+        serializer = new Serializer(Objects.requireNonNull(Serializers.LEGACY_AMPERSAND.getSerializer()));
+      } else {
+        serializer = new Serializer(componentSerializer);
+      }
+    }
+
+    // Resolved before anything is applied, so an invalid address fails the reload as a whole.
+    Map<String, InetAddress> whitelistedAddresses = null;
+    if (isChanged(changed, WHITELIST_SETTINGS)) {
+      whitelistedAddresses = new LinkedHashMap<>();
+      for (Settings.MAIN.WhitelistedPlayer player : settings.MAIN.WHITELISTED_PLAYERS) {
+        try {
+          whitelistedAddresses.put(player.USERNAME, InetAddress.getByName(player.IP));
+        } catch (UnknownHostException e) {
+          throw new IllegalArgumentException(e);
+        }
+      }
     }
 
-    long captchaGeneratorRamConsumed = (long) MapData.MAP_SIZE * Settings.IMP.MAIN.CAPTCHA_GENERATOR.IMAGES_COUNT;
+    if (isChanged(changed, CAPTCHA_SETTINGS)) {
+      long captchaGeneratorRamConsumed = (long) MapData.MAP_SIZE * settings.MAIN.CAPTCHA_GENERATOR.IMAGES_COUNT;
+
+      if (settings.MAIN.FRAMED_CAPTCHA.FRAMED_CAPTCHA_ENABLED) {
+        captchaGeneratorRamConsumed *= (long) settings.MAIN.FRAMED_CAPTCHA.WIDTH * settings.MAIN.FRAMED_CAPTCHA.HEIGHT;
+      }
+
+      if (settings.MAIN.CAPTCHA_GENERATOR.PREPARE_CAPTCHA_PACKETS) {
+        captchaGeneratorRamConsumed *= ProtocolVersion.values().length / 2f;
+      } else {
+        captchaGeneratorRamConsumed *= MapPalette.MapVersion.values().length;
+      }
+
+      double captchaGeneratorRamGigabytesConsumed = captchaGeneratorRamConsumed / 1024.0 / 1024.0 / 1024.0;
 
-    if (Settings.IMP.MAIN.FRAMED_CAPTCHA.FRAMED_CAPTCHA_ENABLED) {
-      captchaGeneratorRamConsumed *= (long) Settings.IMP.MAIN.FRAMED_CAPTCHA.WIDTH * Settings.IMP.MAIN.FRAMED_CAPTCHA.HEIGHT;
+      String ramWarning = String.format("Current captcha generator settings will consume %.2fGB RAM normally and %.2fGB RAM on reloads",
+          captchaGeneratorRamGigabytesConsumed, captchaGeneratorRamGigabytesConsumed * 2);
+
+      if (captchaGeneratorRamConsumed > Runtime.getRuntime().maxMemory() * 2 / 3) {
+        LOGGER.warn(ramWarning);
+        LOGGER.warn("Modify the config to decrease RAM consumption");
+      } else {
+        LOGGER.info(ramWarning);
+        LOGGER.info("Modify the config to decrease RAM consumption");
+      }
     }
 
-    if (Settings.IMP.MAIN.CAPTCHA_GENERATOR.PREPARE_CAPTCHA_PACKETS) {
-      captchaGeneratorRamConsumed *= ProtocolVersion.values().length / 2f;
-    } else {
-      captchaGeneratorRamConsumed *= MapPalette.MapVersion.values().length;
+    FallingCheckTrajectory trajectory = new FallingCheckTrajectory(settings.MAIN.FALLING_CHECK_TICKS, settings.MAIN.MAX_VALID_POSITION_DIFFERENCE);
+    FilterRuntime previousRuntime = this.runtime;
+    FilterRuntime runtime = this.buildRuntime(previousRuntime, changed, settings, serializer);
+
+    // The sessions read the config, the serializer, the falling check trajectory and the packets separately, so they are replaced together.
+    long swapStartTime = System.nanoTime();
+    Settings.IMP.apply(settings);
+    setSerializer(serializer);
+    BotFilterSessionHandler.setFallingCheckTotalTime(settings.MAIN.FALLING_CHECK_TICKS * 50L); // One tick == 50 millis
+    BotFilterSessionHandler.setFallingCheckTrajectory(trajectory);
+    this.runtime = runtime;
+    long swapNanos = System.nanoTime() - swapStartTime;
+
+    if (previousRuntime != null && runtime != previousRuntime) {
+      // Players that were spawned before the swap stay in the previous limbo until they pass or time out.
+      long disposeDelay = Math.max(previousSettings.MAIN.TIME_OUT, previousSettings.MAIN.GEYSER_TIME_OUT) + PREVIOUS_RUNTIME_DISPOSE_MARGIN_MILLIS;
+      this.server.getScheduler().buildTask(this, () -> previousRuntime.dispose(runtime))
+          .delay(disposeDelay, TimeUnit.MILLISECONDS)
+          .schedule();
     }
 
-    double captchaGeneratorRamGigabytesConsumed = captchaGeneratorRamConsumed / 1024.0 / 1024.0 / 1024.0;
+    this.statistics.reload();
 
-    String ramWarning = String.format("Current captcha generator settings will consume %.2fGB RAM normally and %.2fGB RAM on reloads",
-        captchaGeneratorRamGigabytesConsumed, captchaGeneratorRamGigabytesConsumed * 2);
+    if (isChanged(changed, PRE_SPAWN_CHECK_SETTINGS)) {
+      this.preSpawnCheck.reload();
+    }
 
-    if (captchaGeneratorRamConsumed > Runtime.getRuntime().maxMemory() * 2 / 3) {
-      LOGGER.warn(ramWarning);
-      LOGGER.warn("Modify the config to decrease RAM consumption");
-    } else {
-      LOGGER.info(ramWarning);
-      LOGGER.info("Modify the config to decrease RAM consumption");
+    if (isChanged(changed, VERIFIED_MATCH_SETTINGS)) {
+      this.cachedFilterChecks.setAddressMatcher(this.createAddressMatcher());
     }
 
-    BotFilterSessionHandler.setFallingCheckTotalTime(Settings.IMP.MAIN.FALLING_CHECK_TICKS * 50L); // One tick == 50 millis
+    if (isChanged(changed, CLUSTER_SETTINGS)) {
+      this.startCluster();
+    }
 
-    this.statistics.restartUpdateTasks(this, this.server.getScheduler());
+    if (whitelistedAddresses != null) {
+      // Verified players are kept between reloads, only the whitelist is replaced.
+      this.whitelistedPlayers.forEach(this.cachedFilterChecks::remove);
+      this.whitelistedPlayers.clear();
 
-    if (this.refreshCaptchaTask != null) {
-      this.refreshCaptchaTask.cancel();
+      whitelistedAddresses.forEach((username, address) -> {
+        this.cachedFilterChecks.put(username, address, Long.MAX_VALUE);
+        this.whitelistedPlayers.add(username);
+      });
     }
 
-    if (this.generator != null) {
-      this.generator.shutdown();
+    if (previousRuntime == null || runtime.getGenerator() != previousRuntime.getGenerator() || isChanged(changed, CAPTCHA_REFRESH_SETTINGS)) {
+      if (this.refreshCaptchaTask != null) {
+        this.refreshCaptchaTask.cancel();
+      }
+
+      this.refreshCaptchaTask = this.server.getScheduler()
+          .buildTask(this, runtime.getGenerator()::generateImages)
+          .delay(Settings.IMP.MAIN.CAPTCHA_REGENERATE_RATE, TimeUnit.SECONDS)
+          .repeat(Settings.IMP.MAIN.CAPTCHA_REGENERATE_RATE, TimeUnit.SECONDS)
+          .schedule();
     }
 
-    this.generator = new CaptchaGenerator(this);
-    this.generator.initializeGenerator();
+    if (isChanged(changed, COMMAND_SETTINGS)) {
+      CommandManager manager = this.server.getCommandManager();
+      manager.unregister("limbofilter");
+      manager.unregister("sendfilter");
 
-    this.refreshCaptchaTask = this.server.getScheduler()
-        .buildTask(this, this.generator::generateImages)
-        .repeat(Settings.IMP.MAIN.CAPTCHA_REGENERATE_RATE, TimeUnit.SECONDS)
-        .schedule();
+      manager.register("limbofilter", new LimboFilterCommand(this), "lf", "botfilter", "bf", "lfilter");
+      manager.register("sendfilter", new SendFilterCommand(this));
+    }
 
-    this.cachedFilterChecks.clear();
+    if (isChanged(changed, SUBNET_LIMITER_SETTINGS)) {
+      if (this.filterListener != null) {
+        this.server.getEventManager().unregisterListener(this, this.filterListener);
+      }
 
-    Settings.IMP.MAIN.WHITELISTED_PLAYERS.forEach(player -> {
-      try {
-        this.cachedFilterChecks.put(player.USERNAME, new CachedUser(InetAddress.getByName(player.IP), Long.MAX_VALUE));
-      } catch (UnknownHostException e) {
-        throw new IllegalArgumentException(e);
+      this.filterListener = new FilterListener(this);
+      this.server.getEventManager().register(this, this.filterListener);
+    }
+
+    if (isChanged(changed, TCP_LISTENER_SETTINGS)) {
+      if (this.tcpListener != null) {
+        this.tcpListener.stop();
+        this.tcpListener = null;
+      }
+
+      if (this.pcapReplay != null) {
+        this.pcapReplay.stop();
+        this.pcapReplay = null;
+      }
+
+      if (Settings.IMP.MAIN.TCP_LISTENER.PROXY_DETECTOR_ENABLED && Settings.IMP.MAIN.TCP_LISTENER.PING_SOURCE == PingSource.TCP_INFO) {
+        if (!TcpInfoProbe.isAvailable()) {
+          LOGGER.warn("TCP_INFO ping source needs the epoll transport, the proxy check will be skipped");
+        }
+      } else if (Settings.IMP.MAIN.TCP_LISTENER.PROXY_DETECTOR_ENABLED) {
+        try {
+          LOGGER.info("Initializing TCP Listener");
+          this.tcpListener = new TcpListener(this);
+          this.tcpListener.start();
+        } catch (PcapException e) {
+          new Exception("Got exception when starting TCP listener. Disable it if you are unsure what does it does.", e).printStackTrace();
+        }
+      }
+
+      if (!Settings.IMP.MAIN.TCP_LISTENER.REPLAY_FILE.isEmpty()) {
+        if (this.tcpListener != null) {
+          LOGGER.warn("The replay file is ignored while the TCP listener captures live traffic, disable the proxy detector to replay it");
+        } else {
+          this.startPcapReplay(Path.of(Settings.IMP.MAIN.TCP_LISTENER.REPLAY_FILE));
+        }
+      }
+    }
+
+    if (isChanged(changed, PURGE_SETTINGS)) {
+      if (this.purgeCacheTask != null) {
+        this.purgeCacheTask.cancel();
+      }
+
+      this.purgeCacheTask = this.server.getScheduler()
+          .buildTask(this, () -> {
+            this.cachedFilterChecks.purge(System.currentTimeMillis());
+            this.preSpawnCheck.purge();
+            this.saveVerifiedPlayers();
+          })
+          .delay(Settings.IMP.MAIN.PURGE_CACHE_MILLIS, TimeUnit.MILLISECONDS)
+          .repeat(Settings.IMP.MAIN.PURGE_CACHE_MILLIS, TimeUnit.MILLISECONDS)
+          .schedule();
+    }
+
+    if (isChanged(changed, LOG_ENABLER_SETTINGS)) {
+      if (this.logEnablerTask != null) {
+        this.logEnablerTask.cancel();
       }
-    });
 
-    Settings.MAIN.COORDS captchaCoords = Settings.IMP.MAIN.COORDS;
-    this.filterWorld = this.limboFactory.createVirtualWorld(
-        Settings.IMP.MAIN.BOTFILTER_DIMENSION,
+      this.logEnablerTask = this.server.getScheduler()
+          .buildTask(this, this::checkLoggerToEnable)
+          .delay(Settings.IMP.MAIN.LOG_ENABLER_CHECK_REFRESH_RATE, TimeUnit.MILLISECONDS)
+          .repeat(Settings.IMP.MAIN.LOG_ENABLER_CHECK_REFRESH_RATE, TimeUnit.MILLISECONDS)
+          .schedule();
+    }
+
+    // Only a fully applied config is diffed against, so the changes of a failed reload are retried by the next one.
+    this.loadedSettings = settings;
+
+    LOGGER.info("Reloaded in {} ms, the filter limbo was swapped in {} us, changed settings: {}",
+        TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startTime), TimeUnit.NANOSECONDS.toMicros(swapNanos), changed == null ? "all" : changed);
+  }
+
+  // Reuses the parts of the previous runtime which don't depend on the changed settings.
+  private FilterRuntime buildRuntime(FilterRuntime previous, Set<String> changed, Settings settings, Serializer serializer) {
+    long worldFileLastModified = this.getWorldFileLastModified(settings.MAIN);
+    boolean rebuildGenerator = previous == null || isChanged(changed, CAPTCHA_SETTINGS);
+    boolean rebuildWorld = previous == null || isChanged(changed, WORLD_SETTINGS) || worldFileLastModified != previous.getWorldFileLastModified();
+    boolean rebuildPackets = previous == null || isChanged(changed, PACKETS_SETTINGS);
+    if (!rebuildGenerator && !rebuildWorld && !rebuildPackets) {
+      return previous;
+    }
+
+    CaptchaGenerator generator = previous == null ? null : previous.getGenerator();
+    if (rebuildGenerator) {
+      generator = new CaptchaGenerator(this, settings.MAIN);
+      generator.initializeGenerator();
+      // Waiting for the first captchas, so players are never asked to come back later because of a reload.
+      generator.generateImages().join();
+    }
+
+    VirtualWorld filterWorld = rebuildWorld ? this.createFilterWorld(settings.MAIN) : previous.getFilterWorld();
+    Limbo filterServer = rebuildWorld ? this.createFilterServer(filterWorld, settings.MAIN) : previous.getFilterServer();
+
+    CachedPackets cachedPackets = previous == null ? null : previous.getPackets();
+    if (rebuildPackets) {
+      cachedPackets = new CachedPackets(settings.MAIN, serializer);
+      cachedPackets.createPackets(this.limboFactory, this.packetFactory);
+    }
+
+    return new FilterRuntime(filterWorld, filterServer, cachedPackets, generator, worldFileLastModified);
+  }
+
+  private VirtualWorld createFilterWorld(Settings.MAIN settings) {
+    Settings.MAIN.COORDS captchaCoords = settings.COORDS;
+    VirtualWorld filterWorld = this.limboFactory.createVirtualWorld(
+        settings.BOTFILTER_DIMENSION,
         captchaCoords.CAPTCHA_X, captchaCoords.CAPTCHA_Y, captchaCoords.CAPTCHA_Z,
         (float) captchaCoords.CAPTCHA_YAW, (float) captchaCoords.CAPTCHA_PITCH
     );
 
     // Make LimboAPI preload parent to captcha chunks to ensure that Sodium can properly render captcha.
-    if (Settings.IMP.MAIN.FRAMED_CAPTCHA.FRAMED_CAPTCHA_ENABLED) {
-      Settings.MAIN.FRAMED_CAPTCHA settings = Settings.IMP.MAIN.FRAMED_CAPTCHA;
-      for (int x = 0; x < settings.WIDTH; x++) {
-        this.filterWorld.getChunkOrNew(settings.COORDS.X + x, settings.COORDS.Z);
+    if (settings.FRAMED_CAPTCHA.FRAMED_CAPTCHA_ENABLED) {
+      Settings.MAIN.FRAMED_CAPTCHA framedCaptcha = settings.FRAMED_CAPTCHA;
+      for (int x = 0; x < framedCaptcha.WIDTH; x++) {
+        filterWorld.getChunkOrNew(framedCaptcha.COORDS.X + x, framedCaptcha.COORDS.Z);
       }
 
       for (int x = -1; x <= 1; x++) {
         for (int z = -1; z <= 1; z++) {
-          this.filterWorld.getChunkOrNew(
+          filterWorld.getChunkOrNew(
               (int) captchaCoords.CAPTCHA_X + (x * 16),
               (int) captchaCoords.CAPTCHA_Z + (z * 16)
           );
@@ -253,31 +520,31 @@ public class LimboFilter {
       }
     }
 
-    if (Settings.IMP.MAIN.LOAD_WORLD) {
+    if (settings.LOAD_WORLD) {
       try {
-        Path path = this.dataDirectory.resolve(Settings.IMP.MAIN.WORLD_FILE_PATH);
-        WorldFile file = this.limboFactory.openWorldFile(Settings.IMP.MAIN.WORLD_FILE_TYPE, path);
+        Path path = this.dataDirectory.resolve(settings.WORLD_FILE_PATH);
+        WorldFile file = this.limboFactory.openWorldFile(settings.WORLD_FILE_TYPE, path);
 
-        Settings.MAIN.WORLD_COORDS coords = Settings.IMP.MAIN.WORLD_COORDS;
-        file.toWorld(this.limboFactory, this.filterWorld, coords.X, coords.Y, coords.Z, Settings.IMP.MAIN.WORLD_LIGHT_LEVEL);
+        Settings.MAIN.WORLD_COORDS coords = settings.WORLD_COORDS;
+        file.toWorld(this.limboFactory, filterWorld, coords.X, coords.Y, coords.Z, settings.WORLD_LIGHT_LEVEL);
       } catch (IOException e) {
         throw new IllegalArgumentException(e);
       }
     }
 
-    if (Settings.IMP.MAIN.WORLD_OVERRIDE_BLOCK_LIGHT_LEVEL) {
-      this.filterWorld.fillBlockLight(Settings.IMP.MAIN.WORLD_LIGHT_LEVEL);
+    if (settings.WORLD_OVERRIDE_BLOCK_LIGHT_LEVEL) {
+      filterWorld.fillBlockLight(settings.WORLD_LIGHT_LEVEL);
     }
 
-    if (this.filterServer != null) {
-      this.filterServer.dispose();
-    }
+    return filterWorld;
+  }
 
-    this.filterServer = this.limboFactory.createLimbo(this.filterWorld)
+  private Limbo createFilterServer(VirtualWorld filterWorld, Settings.MAIN settings) {
+    return this.limboFactory.createLimbo(filterWorld)
         .setName("LimboFilter")
-        .setReadTimeout(Settings.IMP.MAIN.MAX_PING)
-        .setWorldTime(Settings.IMP.MAIN.WORLD_TICKS)
-        .setGameMode(Settings.IMP.MAIN.GAME_MODE)
+        .setReadTimeout(settings.MAX_PING)
+        .setWorldTime(settings.WORLD_TICKS)
+        .setGameMode(settings.GAME_MODE)
         .setShouldRespawn(false)
         .setShouldUpdateTags(false)
         .registerPacket(PacketDirection.SERVERBOUND, Interact.class, Interact::new, new PacketMapping[]{
@@ -324,74 +591,72 @@ public class LimboFilter {
             new PacketMapping(0x00, ProtocolVersion.MINECRAFT_1_9, true),
             new PacketMapping(0x01, ProtocolVersion.MINECRAFT_1_19_4, true),
         });
+  }
 
-    CachedPackets cachedPackets = new CachedPackets();
-    cachedPackets.createPackets(this.limboFactory, this.packetFactory);
-
-    CachedPackets previousCachedPackets = this.packets;
-    this.packets = cachedPackets;
-
-    if (previousCachedPackets != null) {
-      previousCachedPackets.dispose();
-    }
-
-    CommandManager manager = this.server.getCommandManager();
-    manager.unregister("limbofilter");
-    manager.unregister("sendfilter");
+  // Doesn't need TcpListener, so native libpcap isn't loaded for a replay.
+  private void startPcapReplay(Path file) {
+    int port = ((VelocityConfiguration) this.server.getConfiguration()).getBind().getPort();
+    PcapReplay replay = new PcapReplay(file, port, Settings.IMP.MAIN.TCP_LISTENER.REPLAY_SPEED, Settings.IMP.MAIN.TCP_LISTENER.LISTEN_DELAY);
+    this.pcapReplay = replay;
 
-    manager.register("limbofilter", new LimboFilterCommand(this), "lf", "botfilter", "bf", "lfilter");
-    manager.register("sendfilter", new SendFilterCommand(this));
+    Thread thread = new Thread(() -> {
+      LOGGER.info("Replaying {}", file);
+      try {
+        replay.replay((addressHigh, addressLow, ping, timestamp) -> {
+          this.statistics.updatePing(addressHigh, addressLow, ping);
+          if (Settings.IMP.MAIN.TCP_LISTENER.DEBUG_ON_SUCCESS) {
+            LOGGER.info("Replay: L4 ping of {} at {} is {}", AddressUtils.toString(addressHigh, addressLow), timestamp, ping);
+          }
+        });
+      } catch (IOException e) {
+        LOGGER.error("Failed to replay " + file, e);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
 
-    this.server.getEventManager().unregisterListeners(this);
-    this.server.getEventManager().register(this, new FilterListener(this));
+      long elapsedMillis = Math.max(TimeUnit.NANOSECONDS.toMillis(replay.getElapsedNanos()), 1);
+      LOGGER.info("Replayed {} frames in {} ms ({} frames/s), computed {} L4 pings",
+          replay.getFrames(), elapsedMillis, replay.getFrames() * 1000 / elapsedMillis, replay.getPings());
+    }, "LimboFilter Pcap Replay");
+    thread.setDaemon(true);
+    thread.start();
+  }
 
-    if (this.tcpListener != null) {
-      this.tcpListener.stop();
-      this.tcpListener = null;
+  private long getWorldFileLastModified(Settings.MAIN settings) {
+    if (!settings.LOAD_WORLD) {
+      return 0;
     }
 
-    if (Settings.IMP.MAIN.TCP_LISTENER.PROXY_DETECTOR_ENABLED) {
-      try {
-        LOGGER.info("Initializing TCP Listener");
-        this.tcpListener = new TcpListener(this);
-        this.tcpListener.start();
-      } catch (PcapException e) {
-        new Exception("Got exception when starting TCP listener. Disable it if you are unsure what does it does.", e).printStackTrace();
-      }
+    try {
+      return Files.getLastModifiedTime(this.dataDirectory.resolve(settings.WORLD_FILE_PATH)).toMillis();
+    } catch (IOException e) {
+      return -1;
     }
+  }
 
-    if (this.purgeCacheTask != null) {
-      this.purgeCacheTask.cancel();
+  private static boolean isChanged(Set<String> changed, String[] fields) {
+    if (changed == null) {
+      return true;
     }
 
-    this.purgeCacheTask = this.server.getScheduler()
-        .buildTask(this, () -> this.checkCache(this.cachedFilterChecks))
-        .delay(Settings.IMP.MAIN.PURGE_CACHE_MILLIS, TimeUnit.MILLISECONDS)
-        .repeat(Settings.IMP.MAIN.PURGE_CACHE_MILLIS, TimeUnit.MILLISECONDS)
-        .schedule();
-
-    if (this.logEnablerTask != null) {
-      this.logEnablerTask.cancel();
+    for (String field : fields) {
+      if (changed.contains(field)) {
+        return true;
+      }
     }
 
-    this.logEnablerTask = this.server.getScheduler()
-        .buildTask(this, this::checkLoggerToEnable)
-        .delay(Settings.IMP.MAIN.LOG_ENABLER_CHECK_REFRESH_RATE, TimeUnit.MILLISECONDS)
-        .repeat(Settings.IMP.MAIN.LOG_ENABLER_CHECK_REFRESH_RATE, TimeUnit.MILLISECONDS)
-        .schedule();
+    return false;
   }
 
   public void cacheFilterUser(Player player) {
     String username = player.getUsername();
-    this.cachedFilterChecks.remove(username);
-    this.cachedFilterChecks.put(
-        username,
-        new CachedUser(player.getRemoteAddress().getAddress(), System.currentTimeMillis() + Settings.IMP.MAIN.PURGE_CACHE_MILLIS)
-    );
+    InetAddress address = player.getRemoteAddress().getAddress();
+    long expiry = System.currentTimeMillis() + Settings.IMP.MAIN.PURGE_CACHE_MILLIS;
+    this.verifiedPlayers.put(username, address, expiry);
   }
 
   public void resetCacheForFilterUser(Player player) {
-    this.cachedFilterChecks.remove(player.getUsername());
+    this.verifiedPlayers.remove(player.getUsername());
   }
 
   public boolean shouldCheck(Player player) {
@@ -410,14 +675,86 @@ public class LimboFilter {
     return this.shouldCheck(player.getUsername(), player.getRemoteAddress().getAddress());
   }
 
-  public boolean shouldCheck(String nickname, InetAddress ip) {
-    if (this.cachedFilterChecks.containsKey(nickname)) {
-      return !ip.equals(this.cachedFilterChecks.get(nickname).getInetAddress());
-    } else {
-      return true;
+  private void startCluster() {
+    this.stopCluster();
+
+    Settings.MAIN.CLUSTER settings = Settings.IMP.MAIN.CLUSTER;
+    if (!settings.ENABLED) {
+      return;
+    }
+
+    if (settings.NODE_ID.isEmpty()) {
+      LOGGER.warn("cluster.node-id is not set, this proxy will be seen as a new one by the others after every restart");
+    }
+
+    try {
+      ClusterNode node = new ClusterNode(ClusterNode.getNodeId(settings.NODE_ID),
+          new InetSocketAddress(settings.BIND_ADDRESS, settings.PORT), ClusterNode.parsePeers(settings.PEERS), settings.SECRET);
+      node.start();
+      this.clusterNode = node;
+      LOGGER.info("Started the cluster node on {}:{} with {} peers", settings.BIND_ADDRESS, settings.PORT, node.getPeerCount());
+    } catch (IOException | IllegalArgumentException e) {
+      LOGGER.error("Failed to start the cluster node, running standalone", e);
+      return;
+    }
+
+    if (settings.SHARE_VERIFIED_PLAYERS) {
+      this.verifiedPlayers = new ClusterVerifiedPlayerBackend(this.localVerifiedPlayers, this.clusterNode);
+    }
+
+    if (settings.SHARE_STATISTICS) {
+      ClusterStatistics clusterStatistics = new ClusterStatistics(this.statistics, this.clusterNode, settings.STATISTICS_INTERVAL_MILLIS);
+      this.clusterStatistics = clusterStatistics;
+      this.clusterStatisticsTask = this.server.getScheduler()
+          .buildTask(this, clusterStatistics::broadcast)
+          .repeat(settings.STATISTICS_INTERVAL_MILLIS, TimeUnit.MILLISECONDS)
+          .schedule();
+    }
+  }
+
+  private void stopCluster() {
+    this.verifiedPlayers.close();
+    this.verifiedPlayers = this.localVerifiedPlayers;
+
+    if (this.clusterStatisticsTask != null) {
+      this.clusterStatisticsTask.cancel();
+      this.clusterStatisticsTask = null;
+    }
+
+    if (this.clusterStatistics != null) {
+      this.clusterStatistics.close();
+      this.clusterStatistics = null;
+    }
+
+    if (this.clusterNode != null) {
+      this.clusterNode.close();
+      this.clusterNode = null;
+    }
+  }
+
+  private VerifiedPlayerCache.AddressMatcher createAddressMatcher() {
+    switch (Settings.IMP.MAIN.VERIFIED_ADDRESS_MATCH) {
+      case SUBNET:
+        return VerifiedPlayerCache.AddressMatcher.subnet(Settings.IMP.MAIN.VERIFIED_IPV4_PREFIX, Settings.IMP.MAIN.VERIFIED_IPV6_PREFIX);
+      case ASN:
+        Path path = this.dataDirectory.resolve(Settings.IMP.MAIN.VERIFIED_ASN_FILE);
+        try {
+          AsnTable asnTable = AsnTable.load(path);
+          LOGGER.info("Loaded {} ASN prefixes", asnTable.size());
+          return VerifiedPlayerCache.AddressMatcher.asn(asnTable);
+        } catch (IOException e) {
+          LOGGER.error("Failed to load ASN prefixes from {}, matching exact addresses", path, e);
+          return VerifiedPlayerCache.AddressMatcher.EXACT;
+        }
+      default:
+        return VerifiedPlayerCache.AddressMatcher.EXACT;
     }
   }
 
+  public boolean shouldCheck(String nickname, InetAddress ip) {
+    return !this.verifiedPlayers.isVerified(nickname, ip);
+  }
+
   public void sendToFilterServer(Player player) {
     try {
       if (this.tcpListener != null) {
@@ -425,17 +762,54 @@ public class LimboFilter {
       }
 
       this.checkLoggerToDisable();
-      this.filterServer.spawnPlayer(player, new BotFilterSessionHandler(player, this));
+      this.runtime.getFilterServer().spawnPlayer(player, new BotFilterSessionHandler(player, this));
     } catch (Throwable t) {
       t.printStackTrace();
     }
   }
 
-  private void checkCache(Map<String, CachedUser> userMap) {
-    userMap.entrySet().stream()
-        .filter(user -> user.getValue().getCheckTime() <= System.currentTimeMillis())
-        .map(Map.Entry::getKey)
-        .forEach(userMap::remove);
+  // Only players verified on this proxy or received from the cluster are exported, the whitelist stays in the config.
+  public int exportVerifiedPlayers(String fileName) throws IOException {
+    try (VerifiedPlayerArchive.Writer writer = new VerifiedPlayerArchive.Writer(this.resolveTransferFile(fileName))) {
+      this.verifiedPlayerStore.forEach(entry -> {
+        if (this.cachedFilterChecks.isCurrent(entry.getUsername(), entry.getAddress(), entry.getExpiry())) {
+          try {
+            writer.write(entry);
+          } catch (IOException e) {
+            throw new UncheckedIOException(e);
+          }
+        }
+      });
+
+      return writer.getCount();
+    } catch (UncheckedIOException e) {
+      throw e.getCause();
+    }
+  }
+
+  // Imported players aren't sent to the cluster, every proxy should import the archive by itself.
+  // Whitelisted players are never replaced, see VerifiedPlayerCache#put.
+  public int importVerifiedPlayers(String fileName) throws IOException {
+    int count = VerifiedPlayerArchive.read(this.resolveTransferFile(fileName),
+        entry -> this.localVerifiedPlayers.put(entry.getUsername(), entry.getAddress(), entry.getExpiry()));
+    this.verifiedPlayerStore.flush();
+    return count;
+  }
+
+  // The file name comes from a command argument, it must not point outside the plugin directory.
+  private Path resolveTransferFile(String fileName) {
+    Path directory = this.dataDirectory.toAbsolutePath().normalize();
+    Path file = directory.resolve(fileName).normalize();
+    if (!file.startsWith(directory) || file.equals(directory)) {
+      throw new IllegalArgumentException("The file must be inside " + directory + ": " + fileName);
+    }
+
+    return file;
+  }
+
+  private void saveVerifiedPlayers() {
+    this.verifiedPlayerStore.save(this.cachedFilterChecks.size(),
+        entry -> this.cachedFilterChecks.isCurrent(entry.getUsername(), entry.getAddress(), entry.getExpiry()));
   }
 
   private void checkLoggerToEnable() {
@@ -465,7 +839,9 @@ public class LimboFilter {
 
   public boolean checkCpsLimit(int limit) {
     if (limit != -1) {
-      return limit <= this.statistics.getConnections();
+      ClusterStatistics clusterStatistics = this.clusterStatistics;
+      long connections = this.statistics.getConnections();
+      return limit <= (clusterStatistics == null ? connections : connections + clusterStatistics.getConnections());
     } else {
       return false;
     }
@@ -473,7 +849,9 @@ public class LimboFilter {
 
   public boolean checkPpsLimit(int limit) {
     if (limit != -1) {
-      return limit <= this.statistics.getPings();
+      ClusterStatistics clusterStatistics = this.clusterStatistics;
+      long pings = this.statistics.getPings();
+      return limit <= (clusterStatistics == null ? pings : pings + clusterStatistics.getPings());
     } else {
       return false;
     }
@@ -506,23 +884,27 @@ public class LimboFilter {
   }
 
   public CachedPackets getPackets() {
-    return this.packets;
+    return this.runtime.getPackets();
   }
 
   public Statistics getStatistics() {
     return this.statistics;
   }
 
+  public PreSpawnCheck getPreSpawnCheck() {
+    return this.preSpawnCheck;
+  }
+
   public TcpListener getTcpListener() {
     return this.tcpListener;
   }
 
   public CaptchaHolder getNextCaptcha() {
-    return this.generator.getNextCaptcha();
+    return this.runtime.getGenerator().getNextCaptcha();
   }
 
   public VirtualWorld getFilterWorld() {
-    return this.filterWorld;
+    return this.runtime.getFilterWorld();
   }
 
   private static void setLogger(Logger logger) {
@@ -540,23 +922,4 @@ public class LimboFilter {
   public static Serializer getSerializer() {
     return SERIALIZER;
   }
-
-  private static class CachedUser {
-
-    private final InetAddress inetAddress;
-    private final long checkTime;
-
-    public CachedUser(InetAddress inetAddress, long checkTime) {
-      this.inetAddress = inetAddress;
-      this.checkTime = checkTime;
-    }
-
-    public InetAddress getInetAddress() {
-      return this.inetAddress;
-    }
-
-    public long getCheckTime() {
-      return this.checkTime;
-    }
-  }
 }
@@ -17,15 +17,22 @@
 
 package net.elytrium.limbofilter;
 
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import net.elytrium.commons.config.YamlConfig;
 import net.elytrium.commons.kyori.serialization.Serializers;
 import net.elytrium.limboapi.api.chunk.Dimension;
 import net.elytrium.limboapi.api.file.BuiltInWorldFileType;
 import net.elytrium.limboapi.api.player.GameMode;
+import net.elytrium.limbofilter.cache.VerifiedPlayerCache;
 import net.elytrium.limbofilter.commands.CommandPermissionState;
 import net.elytrium.limbofilter.handler.BotFilterSessionHandler;
+import net.elytrium.limbofilter.listener.PingSource;
 
 public class Settings extends YamlConfig {
 
@@ -49,6 +56,124 @@ public class Settings extends YamlConfig {
   @Create
   public MAIN MAIN;
 
+  // Takes the sections of a freshly loaded config by reference, so it's never seen half-loaded.
+  public void apply(Settings settings) {
+    this.SERIALIZER = settings.SERIALIZER;
+    this.PREFIX = settings.PREFIX;
+    this.MAIN = settings.MAIN;
+  }
+
+  // Names of the root and "main" fields that differ between two loaded configs, e.g. "PREFIX" or "TCP_LISTENER".
+  public static Set<String> getChangedFields(Settings previous, Settings current) {
+    Set<String> changed = new HashSet<>();
+    for (Field field : getConfigFields()) {
+      Object previousSection = field.getDeclaringClass() == MAIN.class ? previous.MAIN : previous;
+      Object currentSection = field.getDeclaringClass() == MAIN.class ? current.MAIN : current;
+      if (!isSameValue(getValue(field, previousSection), getValue(field, currentSection))) {
+        changed.add(field.getName());
+      }
+    }
+
+    return changed;
+  }
+
+  // Returns the given field names, failing on the ones getChangedFields can't report, so a renamed field can't silently stop a reload.
+  public static String[] getFieldNames(String... names) {
+    Set<String> known = new HashSet<>();
+    for (Field field : getConfigFields()) {
+      known.add(field.getName());
+    }
+
+    for (String name : names) {
+      if (!known.contains(name)) {
+        throw new IllegalStateException("Unknown config field: " + name);
+      }
+    }
+
+    return names;
+  }
+
+  // The root fields except the "main" section itself, followed by the "main" fields.
+  private static List<Field> getConfigFields() {
+    List<Field> fields = new ArrayList<>();
+    for (Field field : Settings.class.getFields()) {
+      if (!Modifier.isStatic(field.getModifiers()) && field.getType() != MAIN.class) {
+        fields.add(field);
+      }
+    }
+
+    for (Field field : MAIN.class.getFields()) {
+      if (!Modifier.isStatic(field.getModifiers())) {
+        fields.add(field);
+      }
+    }
+
+    return fields;
+  }
+
+  private static boolean isSameValue(Object previous, Object current) {
+    if (previous == current) {
+      return true;
+    }
+
+    if (previous == null || current == null || previous.getClass() != current.getClass()) {
+      return false;
+    }
+
+    if (previous instanceof List) {
+      List<?> previousList = (List<?>) previous;
+      List<?> currentList = (List<?>) current;
+      if (previousList.size() != currentList.size()) {
+        return false;
+      }
+
+      for (int i = 0; i < previousList.size(); ++i) {
+        if (!isSameValue(previousList.get(i), currentList.get(i))) {
+          return false;
+        }
+      }
+
+      return true;
+    }
+
+    if (previous instanceof Map) {
+      Map<?, ?> previousMap = (Map<?, ?>) previous;
+      Map<?, ?> currentMap = (Map<?, ?>) current;
+      return previousMap.size() == currentMap.size() && previousMap.entrySet().stream()
+          .allMatch(entry -> currentMap.containsKey(entry.getKey()) && isSameValue(entry.getValue(), currentMap.get(entry.getKey())));
+    }
+
+    if (isSection(previous.getClass())) {
+      for (Field field : previous.getClass().getFields()) {
+        if (!Modifier.isStatic(field.getModifiers()) && !isSameValue(getValue(field, previous), getValue(field, current))) {
+          return false;
+        }
+      }
+
+      return true;
+    }
+
+    return previous.equals(current);
+  }
+
+  private static boolean isSection(Class<?> type) {
+    for (Class<?> enclosing = type.getEnclosingClass(); enclosing != null; enclosing = enclosing.getEnclosingClass()) {
+      if (enclosing == Settings.class) {
+        return true;
+      }
+    }
+
+    return false;
+  }
+
+  private static Object getValue(Field field, Object section) {
+    try {
+      return field.get(section);
+    } catch (IllegalAccessException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+
   @Comment("Don't use \\n, use {NL} for new line, and {PRFX} for prefix.")
   public static class MAIN {
 
@@ -60,10 +185,28 @@ public class Settings extends YamlConfig {
     public List<String> BLOCKED_CLIENT_BRANDS = List.of("brand1", "brand2");
     @Comment("Time in milliseconds, how frequently will the cache list with verified players be reset. Before that time, verified players can join the server without passing antibot checks.")
     public long PURGE_CACHE_MILLIS = 3600000;
+    @Comment("Save verified players to verified-players.txt, so they don't have to pass the checks again after a restart.")
+    public boolean SAVE_VERIFIED_PLAYERS = true;
+    @Comment({
+        "How a verified player's address is compared when they rejoin:",
+        "EXACT - The same address only",
+        "SUBNET - Any address in the same IPv4/IPv6 prefix, see VERIFIED_IPV4_PREFIX and VERIFIED_IPV6_PREFIX",
+        "ASN - Any address in the same autonomous system, see VERIFIED_ASN_FILE"
+    })
+    public VerifiedPlayerCache.AddressMatch VERIFIED_ADDRESS_MATCH = VerifiedPlayerCache.AddressMatch.EXACT;
+    public int VERIFIED_IPV4_PREFIX = 24;
+    public int VERIFIED_IPV6_PREFIX = 64;
+    @Comment("File with \"<prefix>/<length> <asn>\" lines (e.g. \"1.1.1.0/24 AS13335\"), relative to the plugin folder.")
+    public String VERIFIED_ASN_FILE = "asn-prefixes.txt";
     @Comment("Max attempts, which a player has to solve the captcha.")
     public int CAPTCHA_ATTEMPTS = 2;
     @Comment("Duration of Falling Check in Minecraft ticks (1 tick = 0.05 second, 20 ticks = 1 second).")
     public int FALLING_CHECK_TICKS = 128;
+    @Comment({
+        "How often (in ticks) the falling check progress bar should be updated.",
+        "1 to update it on every movement packet. Higher values reduce the amount of network flushes during attacks."
+    })
+    public int FALLING_CHECK_PROGRESS_UPDATE_RATE = 1;
     @Comment("Maximum time to check the player in milliseconds. If the player stays on the filter limbo for longer than this time, then the check will fail.")
     public int TIME_OUT = 15000;
     @Comment("Same, but for Geyser users.")
@@ -203,6 +346,15 @@ public class Settings extends YamlConfig {
 
       @Comment("All the log messages from all plugins will be disabled.")
       public int DISABLE_LOG = 129;
+
+      @Comment("Players will be checked by the pre-spawn-check rules before spawning in the filter limbo.")
+      public int PRE_SPAWN_CHECK = 129;
+
+      @Comment({
+          "Connections will be limited per subnet, see \"subnet-rate-limit\".",
+          "Verified players are never limited."
+      })
+      public int SUBNET_RATE_LIMIT = 129;
     }
 
     @Create
@@ -377,11 +529,25 @@ public class Settings extends YamlConfig {
       })
       public boolean PROXY_DETECTOR_ENABLED = false;
 
+      @Comment({
+          "Where the L4 ping is taken from. Available sources: PCAP, TCP_INFO",
+          "PCAP -> Captures the proxy traffic with libpcap, all the settings below are used by it.",
+          "TCP_INFO -> Reads the RTT that the kernel tracks for the player's socket. Needs the epoll transport (Linux), no libpcap or CAP_NET_RAW."
+      })
+      public PingSource PING_SOURCE = PingSource.PCAP;
+
       @Comment("Difference between TCP (L4) and Minecraft (L7) ping in milliseconds to detect proxies.")
       public int PROXY_DETECTOR_DIFFERENCE = 5;
 
+      @Comment("Comma-separated list of interfaces to capture on.")
       public String INTERFACE_NAME = "any";
 
+      @Comment({
+          "Capture threads per interface, rounded down to a power of two.",
+          "The kernel splits the checked players between them by the last byte of the address."
+      })
+      public int CAPTURE_THREADS = 1;
+
       @Comment("How many bytes we should take from the each frame to analyse. 120 is enough for any TCP+IP header analysing")
       public int SNAPLEN = 120;
 
@@ -391,11 +557,119 @@ public class Settings extends YamlConfig {
       @Comment("Time in millis for capturing frames")
       public int TIMEOUT = 10;
 
+      @Comment({
+          "How often in millis the capture filter is narrowed to the players being checked. 0 to never narrow it.",
+          "Players who joined the filter since the last update are not captured until the next one adds them, so their ping is measured later."
+      })
+      public int FILTER_UPDATE_INTERVAL = 1000;
+
+      @Comment("Max players in the capture filter, above this the filter only checks TCP flags. The kernel limits filter size.")
+      public int FILTER_MAX_ADDRESSES = 128;
+
+      @Comment("How many addresses can have a known L4 ping at the same time. The oldest ones are evicted first.")
+      public int PING_TABLE_SIZE = 65536;
+
+      @Comment("Time in millis after which the L4 ping of an address is forgotten.")
+      public long PING_EXPIRE_MILLIS = 120000;
+
+      @Comment({
+          "Path to a pcap (not pcapng) capture file to replay, to measure the proxy check offline. Doesn't need libpcap.",
+          "Only replayed while the TCP listener doesn't capture live traffic, e.g. with proxy-detector-enabled: false.",
+          "L4 pings of every client in the file are computed and logged with \"debug-on-success\"."
+      })
+      public String REPLAY_FILE = "";
+
+      @Comment("Replay speed relative to the recorded one. 0 to replay as fast as possible.")
+      public double REPLAY_SPEED = 1.0;
+
       @Comment("Log L4 and L7 ping")
       public boolean DEBUG_ON_FAIL = false;
       public boolean DEBUG_ON_SUCCESS = false;
     }
 
+    @Create
+    public MAIN.SUBNET_RATE_LIMIT SUBNET_RATE_LIMIT;
+
+    @Comment({
+        "Token bucket limit of connections per subnet, checked before any login work is done.",
+        "See \"filter-auto-toggle.subnet-rate-limit\"."
+    })
+    public static class SUBNET_RATE_LIMIT {
+
+      @Comment("Max connections from one subnet in a row. -1 to disable.")
+      public int BURST = 32;
+      @Comment("How many connections per second are given back to the subnet.")
+      public double REFILL_PER_SECOND = 2.0;
+      public int IPV4_PREFIX = 24;
+      public int IPV6_PREFIX = 48;
+      @Comment("Max amount of tracked subnets (rounded up to a power of two).")
+      public int TABLE_SIZE = 65536;
+      @Comment("Time in milliseconds after which an idle subnet may be evicted from the table.")
+      public long EXPIRE_MILLIS = 60000;
+    }
+
+    @Create
+    public MAIN.PRE_SPAWN_CHECK PRE_SPAWN_CHECK;
+
+    @Comment({
+        "Rules to kick obvious bots before spawning them in the filter limbo.",
+        "See \"filter-auto-toggle.pre-spawn-check\"."
+    })
+    public static class PRE_SPAWN_CHECK {
+
+      @Comment("Time in milliseconds, how long addresses that failed the check will be kicked before spawning. 0 to disable.")
+      public long BAD_ADDRESS_EXPIRE_MILLIS = 300000;
+      @Comment("Max amount of addresses that failed the check to remember.")
+      public int BAD_ADDRESS_CACHE_SIZE = 65536;
+
+      @Comment("Max connections from one subnet per subnet-unit-of-time-millis. -1 to disable.")
+      public int SUBNET_CONNECTIONS_LIMIT = 16;
+      public long SUBNET_UNIT_OF_TIME_MILLIS = 10000;
+      public int SUBNET_IPV4_PREFIX = 24;
+      public int SUBNET_IPV6_PREFIX = 48;
+      @Comment("Max amount of tracked subnets (rounded up to a power of two).")
+      public int SUBNET_TABLE_SIZE = 65536;
+
+      @Comment({
+          "Max Shannon entropy of the username in bits per character, randomly generated usernames usually have 3.5 and more.",
+          "0 to disable."
+      })
+      public double MAX_USERNAME_ENTROPY = 0;
+    }
+
+    @Create
+    public MAIN.CLUSTER CLUSTER;
+
+    @Comment({
+        "Connects several proxies behind one load balancer over UDP, without any external service.",
+        "Each proxy has to list all the other ones in peers and use the same secret."
+    })
+    public static class CLUSTER {
+
+      public boolean ENABLED = false;
+      @Comment({
+          "Unique name of this proxy in the cluster, keep it the same across restarts.",
+          "If empty, a random one is used on every start, so a restarted proxy is counted twice in the cluster statistics for a while."
+      })
+      public String NODE_ID = "";
+      @Comment("Address and port to receive the messages of other proxies on.")
+      public String BIND_ADDRESS = "0.0.0.0";
+      public int PORT = 25580;
+      @Comment("host:port of the other proxies.")
+      public List<String> PEERS = List.of();
+      @Comment("Messages are authenticated with HMAC-SHA256 using this secret, the cluster won't start without it.")
+      public String SECRET = "";
+      @Comment("Players verified on one proxy won't be checked on the others.")
+      public boolean SHARE_VERIFIED_PLAYERS = true;
+      @Comment({
+          "Filter auto-toggle thresholds are compared against the connections and pings of the whole cluster.",
+          "Use the same unit-of-time-cps and unit-of-time-pps on all the proxies for the best accuracy."
+      })
+      public boolean SHARE_STATISTICS = true;
+      @Comment("How often the counters are sent to the other proxies, in milliseconds.")
+      public long STATISTICS_INTERVAL_MILLIS = 250;
+    }
+
     @Create
     public MAIN.COMMAND_PERMISSION_STATE COMMAND_PERMISSION_STATE;
 
@@ -412,6 +686,10 @@ public class Settings extends YamlConfig {
       public CommandPermissionState RELOAD = CommandPermissionState.PERMISSION;
       @Comment("Permission: limbofilter.admin.stats")
       public CommandPermissionState STATS = CommandPermissionState.PERMISSION;
+      @Comment("Permission: limbofilter.admin.export")
+      public CommandPermissionState EXPORT = CommandPermissionState.PERMISSION;
+      @Comment("Permission: limbofilter.admin.import")
+      public CommandPermissionState IMPORT = CommandPermissionState.PERMISSION;
       @Comment("Permission: limbofilter.admin.help")
       public CommandPermissionState HELP = CommandPermissionState.TRUE;
     }
@@ -423,10 +701,13 @@ public class Settings extends YamlConfig {
     public static class STRINGS {
 
       public String RELOAD = "{PRFX} &aReloaded successfully!";
+      public String RELOAD_FAILED = "{PRFX} &cFailed to reload, see the console for details.";
 
       public String CLIENT_SETTINGS_KICK = "{PRFX}{NL}&cYour client doesn't send settings packets.";
       public String CLIENT_BRAND_KICK = "{PRFX}{NL}&cYour client doesn't send brand packet or it's blocked.";
       public String PROXY_CHECK_KICK = "{PRFX}{NL}&cYour connection is suspicious.";
+      public String PRE_SPAWN_CHECK_KICK = "{PRFX}{NL}&cYour connection is suspicious.{NL}&6Please, try again later.";
+      public String SUBNET_RATE_LIMIT_KICK = "{PRFX}{NL}&cToo many connections from your network.{NL}&6Please, try again later.";
 
       public String CHECKING_CHAT = "{PRFX} Bot-Filter check was started, please wait and don't move..";
       public String CHECKING_TITLE = "{PRFX}";
@@ -448,6 +729,10 @@ public class Settings extends YamlConfig {
       public String STATS_ENABLED = "{PRFX} &aNow you may see statistics in your action bar.";
       public String STATS_DISABLED = "{PRFX} &cYou can no longer see statistics in your action bar.";
 
+      public String VERIFIED_PLAYERS_EXPORTED = "{PRFX} &aExported &6{0} &averified players to {1} in {2} ms.";
+      public String VERIFIED_PLAYERS_IMPORTED = "{PRFX} &aImported &6{0} &averified players from {1} in {2} ms.";
+      public String VERIFIED_PLAYERS_TRANSFER_FAILED = "{PRFX} &cFailed to transfer verified players: {0}";
+
       public String SEND_PLAYER_SUCCESSFUL = "{PRFX} Successfully sent {0} to the filter limbo.";
       public String SEND_SERVER_SUCCESSFUL = "{PRFX} Successfully sent {0} players from {1} to filter limbo.";
       public String SEND_FAILED = "{PRFX} There is no registered servers or connected players named {0}.";
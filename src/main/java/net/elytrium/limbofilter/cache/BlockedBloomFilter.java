@@ -0,0 +1,79 @@
+/*
+ * Copyright (C) 2021 - 2025 Elytrium
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.elytrium.limbofilter.cache;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+// Every key sets its bits in one 512-bit block, so a lookup reads a single cache line.
+// Takes already mixed 64-bit hashes: the block is chosen by bits 32-57, the bits inside it by bits 0-35.
+public class BlockedBloomFilter {
+
+  private static final int BLOCK_WORDS = 8;
+  private static final int BITS_PER_KEY = 16;
+  private static final int KEYS_PER_BLOCK = BLOCK_WORDS * Long.SIZE / BITS_PER_KEY;
+  private static final int PROBES = 4;
+
+  private final AtomicLongArray words;
+  private final AtomicInteger size = new AtomicInteger();
+  private final int blockMask;
+  private final int capacity;
+
+  public BlockedBloomFilter(int expectedKeys) {
+    int blocks = Math.max(Integer.highestOneBit(Math.max((expectedKeys + KEYS_PER_BLOCK - 1) / KEYS_PER_BLOCK, 1) - 1) << 1, 1);
+    this.words = new AtomicLongArray(blocks * BLOCK_WORDS);
+    this.blockMask = blocks - 1;
+    this.capacity = blocks * KEYS_PER_BLOCK;
+  }
+
+  public void add(long hash) {
+    int offset = this.getBlockOffset(hash);
+    for (int probe = 0; probe < PROBES; ++probe) {
+      int bit = (int) (hash >>> (probe * 9));
+      long mask = 1L << bit;
+      int index = offset + ((bit >>> 6) & (BLOCK_WORDS - 1));
+      long word = this.words.get(index);
+      while ((word & mask) == 0 && !this.words.weakCompareAndSetVolatile(index, word, word | mask)) {
+        word = this.words.get(index);
+      }
+    }
+
+    this.size.incrementAndGet();
+  }
+
+  public boolean mightContain(long hash) {
+    int offset = this.getBlockOffset(hash);
+    for (int probe = 0; probe < PROBES; ++probe) {
+      int bit = (int) (hash >>> (probe * 9));
+      if ((this.words.get(offset + ((bit >>> 6) & (BLOCK_WORDS - 1))) & (1L << bit)) == 0) {
+        return false;
+      }
+    }
+
+    return true;
+  }
+
+  // The false positive rate grows quickly once there are more keys than it was sized for.
+  public boolean isFull() {
+    return this.size.get() > this.capacity;
+  }
+
+  private int getBlockOffset(long hash) {
+    return ((int) (hash >>> 32) & this.blockMask) * BLOCK_WORDS;
+  }
+}
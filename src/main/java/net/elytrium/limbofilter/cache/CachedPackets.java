@@ -30,6 +30,7 @@ import com.velocitypowered.proxy.protocol.packet.chat.legacy.LegacyChatPacket;
 import com.velocitypowered.proxy.protocol.packet.title.GenericTitlePacket;
 import java.text.MessageFormat;
 import java.util.UUID;
+import net.elytrium.commons.kyori.serialization.Serializer;
 import net.elytrium.limboapi.api.LimboFactory;
 import net.elytrium.limboapi.api.chunk.Dimension;
 import net.elytrium.limboapi.api.chunk.VirtualChunk;
@@ -38,7 +39,6 @@ import net.elytrium.limboapi.api.material.VirtualItem;
 import net.elytrium.limboapi.api.protocol.PreparedPacket;
 import net.elytrium.limboapi.api.protocol.item.ItemComponentMap;
 import net.elytrium.limboapi.api.protocol.packets.PacketFactory;
-import net.elytrium.limbofilter.LimboFilter;
 import net.elytrium.limbofilter.Settings;
 import net.elytrium.limbofilter.protocol.data.ItemFrame;
 import net.elytrium.limbofilter.protocol.packets.SetEntityMetadata;
@@ -48,6 +48,9 @@ import net.kyori.adventure.nbt.IntBinaryTag;
 
 public class CachedPackets {
 
+  private final Settings.MAIN settings;
+  private final Serializer serializer;
+
   private PreparedPacket fallingCheckPackets;
   private PreparedPacket fallingCheckTitleAndChat;
   private PreparedPacket[] captchaAttemptsPacket;
@@ -66,8 +69,14 @@ public class CachedPackets {
   private PreparedPacket captchaNotReadyYet;
   private PreparedPacket framedCaptchaPackets;
 
+  // Built from the given config and serializer rather than the current ones, so a reload can prepare them before they are applied.
+  public CachedPackets(Settings.MAIN settings, Serializer serializer) {
+    this.settings = settings;
+    this.serializer = serializer;
+  }
+
   public void createPackets(LimboFactory limboFactory, PacketFactory packetFactory) {
-    Settings.MAIN.STRINGS strings = Settings.IMP.MAIN.STRINGS;
+    Settings.MAIN.STRINGS strings = this.settings.STRINGS;
 
     this.captchaAttemptsPacket = this.createCaptchaAttemptsPacket(limboFactory, packetFactory, strings.CHECKING_CAPTCHA_TITLE,
         strings.CHECKING_CAPTCHA_SUBTITLE, strings.CHECKING_CAPTCHA_CHAT, strings.CHECKING_WRONG_CAPTCHA_CHAT);
@@ -111,7 +120,7 @@ public class CachedPackets {
   }
 
   private PreparedPacket createFramedCaptchaPackets(LimboFactory limboFactory) {
-    Settings.MAIN.FRAMED_CAPTCHA settings = Settings.IMP.MAIN.FRAMED_CAPTCHA;
+    Settings.MAIN.FRAMED_CAPTCHA settings = this.settings.FRAMED_CAPTCHA;
     if (!settings.FRAMED_CAPTCHA_ENABLED) {
       return null;
     }
@@ -123,7 +132,7 @@ public class CachedPackets {
     for (int y = 0; y < settings.HEIGHT; y++) {
       for (int x = 0; x < settings.WIDTH; x++) {
         int id = y * settings.WIDTH + x;
-        int entityId = id + 10;
+        int entityId = id + ItemFrame.FIRST_ENTITY_ID;
 
         preparedPacket
             .prepare(
@@ -153,13 +162,13 @@ public class CachedPackets {
 
   private PreparedPacket[] createCaptchaAttemptsPacket(LimboFactory limboFactory, PacketFactory packetFactory,
                                                        String checkingTitle, String checkingSubtitle, String checkingChat, String wrongCaptcha) {
-    PreparedPacket[] packets = new PreparedPacket[Settings.IMP.MAIN.CAPTCHA_ATTEMPTS + 1];
+    PreparedPacket[] packets = new PreparedPacket[this.settings.CAPTCHA_ATTEMPTS + 1];
 
-    for (int i = 1; i < Settings.IMP.MAIN.CAPTCHA_ATTEMPTS; ++i) {
+    for (int i = 1; i < this.settings.CAPTCHA_ATTEMPTS; ++i) {
       PreparedPacket packet = limboFactory.createPreparedPacket();
       this.createChatPacket(packet, MessageFormat.format(wrongCaptcha, i));
 
-      if (!Settings.IMP.MAIN.FRAMED_CAPTCHA.FRAMED_CAPTCHA_ENABLED) {
+      if (!this.settings.FRAMED_CAPTCHA.FRAMED_CAPTCHA_ENABLED) {
         packet
             .prepare(
                 this.createSetSlotPacketLegacy(
@@ -184,9 +193,9 @@ public class CachedPackets {
       packets[i] = packet.build();
     }
 
-    packets[Settings.IMP.MAIN.CAPTCHA_ATTEMPTS] = this.createCaptchaFirstAttemptPacket(limboFactory, checkingTitle, checkingSubtitle, checkingChat);
-    if (!Settings.IMP.MAIN.FRAMED_CAPTCHA.FRAMED_CAPTCHA_ENABLED) {
-      packets[Settings.IMP.MAIN.CAPTCHA_ATTEMPTS]
+    packets[this.settings.CAPTCHA_ATTEMPTS] = this.createCaptchaFirstAttemptPacket(limboFactory, checkingTitle, checkingSubtitle, checkingChat);
+    if (!this.settings.FRAMED_CAPTCHA.FRAMED_CAPTCHA_ENABLED) {
+      packets[this.settings.CAPTCHA_ATTEMPTS]
           .prepare(
               this.createSetSlotPacketLegacy(
                   packetFactory, limboFactory.getItem(Item.FILLED_MAP), 1, null
@@ -207,7 +216,7 @@ public class CachedPackets {
               ), ProtocolVersion.MINECRAFT_1_20_5
       );
     }
-    packets[Settings.IMP.MAIN.CAPTCHA_ATTEMPTS].build();
+    packets[this.settings.CAPTCHA_ATTEMPTS].build();
 
     return packets;
   }
@@ -248,13 +257,13 @@ public class CachedPackets {
 
   private PreparedPacket createCaptchaFirstAttemptPacket(LimboFactory factory, String checkingTitle, String checkingSubtitle, String checkingChat) {
     PreparedPacket preparedPacket = factory.createPreparedPacket();
-    this.createChatPacket(preparedPacket, MessageFormat.format(checkingChat, Settings.IMP.MAIN.CAPTCHA_ATTEMPTS));
+    this.createChatPacket(preparedPacket, MessageFormat.format(checkingChat, this.settings.CAPTCHA_ATTEMPTS));
 
     if (!checkingTitle.isEmpty() && !checkingSubtitle.isEmpty()) {
       this.createTitlePacket(
           preparedPacket,
-          MessageFormat.format(checkingTitle, Settings.IMP.MAIN.CAPTCHA_ATTEMPTS),
-          MessageFormat.format(checkingSubtitle, Settings.IMP.MAIN.CAPTCHA_ATTEMPTS)
+          MessageFormat.format(checkingTitle, this.settings.CAPTCHA_ATTEMPTS),
+          MessageFormat.format(checkingSubtitle, this.settings.CAPTCHA_ATTEMPTS)
       );
     }
 
@@ -262,9 +271,9 @@ public class CachedPackets {
   }
 
   private PreparedPacket createFallingCheckPackets(LimboFactory limboFactory, PacketFactory packetFactory) {
-    Settings.MAIN.FALLING_COORDS fallingCoords = Settings.IMP.MAIN.FALLING_COORDS;
+    Settings.MAIN.FALLING_COORDS fallingCoords = this.settings.FALLING_COORDS;
 
-    Settings.MAIN.COORDS coords = Settings.IMP.MAIN.COORDS;
+    Settings.MAIN.COORDS coords = this.settings.COORDS;
     PreparedPacket preparedPacket = limboFactory.createPreparedPacket().prepare(
         this.createPlayerPosAndLook(
             packetFactory,
@@ -272,7 +281,7 @@ public class CachedPackets {
             (float) coords.FALLING_CHECK_YAW, (float) coords.FALLING_CHECK_PITCH
         )
     ).prepare(this.createChunkData(
-        limboFactory, packetFactory, fallingCoords.X >> 4, fallingCoords.Z >> 4, Settings.IMP.MAIN.BOTFILTER_DIMENSION
+        limboFactory, packetFactory, fallingCoords.X >> 4, fallingCoords.Z >> 4, this.settings.BOTFILTER_DIMENSION
     )).prepare(this.createUpdateViewPosition(packetFactory, fallingCoords.X, fallingCoords.Z), ProtocolVersion.MINECRAFT_1_14);
 
     return preparedPacket.build();
@@ -310,7 +319,7 @@ public class CachedPackets {
   }
 
   private PreparedPacket createFallingCheckChunkUnloadPacket(LimboFactory limboFactory, PacketFactory packetFactory) {
-    Settings.MAIN.FALLING_COORDS coords = Settings.IMP.MAIN.FALLING_COORDS;
+    Settings.MAIN.FALLING_COORDS coords = this.settings.FALLING_COORDS;
     return limboFactory.createPreparedPacket().prepare(packetFactory.createChunkUnloadPacket(coords.X >> 4, coords.Z >> 4), ProtocolVersion.MINECRAFT_1_21_2).build();
   }
 
@@ -319,7 +328,7 @@ public class CachedPackets {
   }
 
   private PreparedPacket[] createExpPackets(LimboFactory limboFactory, PacketFactory packetFactory) {
-    int ticks = Settings.IMP.MAIN.FALLING_CHECK_TICKS;
+    int ticks = this.settings.FALLING_CHECK_TICKS;
     PreparedPacket[] packets = new PreparedPacket[ticks];
     final int ticksM1 = ticks - 1;
     for (int i = 0; i < ticks; ++i) {
@@ -334,46 +343,46 @@ public class CachedPackets {
   }
 
   private MinecraftPacket createSetSlotPacketModern(PacketFactory packetFactory, VirtualItem item, int count, CompoundBinaryTag nbt) {
-    return (MinecraftPacket) packetFactory.createSetSlotPacket(0, Settings.IMP.MAIN.CAPTCHA_LEFT_HAND ? 45 : 36, item, count, 0, nbt);
+    return (MinecraftPacket) packetFactory.createSetSlotPacket(0, this.settings.CAPTCHA_LEFT_HAND ? 45 : 36, item, count, 0, nbt);
   }
 
   private MinecraftPacket createSetSlotPacketComponent(PacketFactory packetFactory, VirtualItem item, int count, ItemComponentMap map) {
-    return (MinecraftPacket) packetFactory.createSetSlotPacket(0, Settings.IMP.MAIN.CAPTCHA_LEFT_HAND ? 45 : 36, item, count, 0, map);
+    return (MinecraftPacket) packetFactory.createSetSlotPacket(0, this.settings.CAPTCHA_LEFT_HAND ? 45 : 36, item, count, 0, map);
   }
 
   public void createChatPacket(PreparedPacket packet, String text) {
     packet
         .prepare(new LegacyChatPacket(
             ProtocolUtils.getJsonChatSerializer(ProtocolVersion.MINIMUM_VERSION).serialize(
-                LimboFilter.getSerializer().deserialize(text)
+                this.serializer.deserialize(text)
             ), LegacyChatPacket.CHAT_TYPE, null
         ), ProtocolVersion.MINIMUM_VERSION, ProtocolVersion.MINECRAFT_1_15_2)
         .prepare(new LegacyChatPacket(
             ProtocolUtils.getJsonChatSerializer(ProtocolVersion.MINECRAFT_1_16).serialize(
-                LimboFilter.getSerializer().deserialize(text)
+                this.serializer.deserialize(text)
             ), LegacyChatPacket.CHAT_TYPE, null
         ), ProtocolVersion.MINECRAFT_1_16, ProtocolVersion.MINECRAFT_1_18_2)
         .prepare(version -> new SystemChatPacket(
-            new ComponentHolder(version, LimboFilter.getSerializer().deserialize(text)), ChatType.SYSTEM
+            new ComponentHolder(version, this.serializer.deserialize(text)), ChatType.SYSTEM
         ), ProtocolVersion.MINECRAFT_1_19);
   }
 
   private PreparedPacket createDisconnectPacket(LimboFactory factory, String message) {
     return factory.createPreparedPacket().prepare(version ->
-        DisconnectPacket.create(LimboFilter.getSerializer().deserialize(message), version, StateRegistry.PLAY)).build();
+        DisconnectPacket.create(this.serializer.deserialize(message), version, StateRegistry.PLAY)).build();
   }
 
   public void createTitlePacket(PreparedPacket preparedPacket, String title, String subtitle) {
     preparedPacket.prepare(version -> {
       GenericTitlePacket packet = GenericTitlePacket.constructTitlePacket(GenericTitlePacket.ActionType.SET_TITLE, version);
-      packet.setComponent(new ComponentHolder(version, LimboFilter.getSerializer().deserialize(title)));
+      packet.setComponent(new ComponentHolder(version, this.serializer.deserialize(title)));
       return packet;
     }, ProtocolVersion.MINECRAFT_1_8);
 
     if (!subtitle.isEmpty()) {
       preparedPacket.prepare(version -> {
         GenericTitlePacket packet = GenericTitlePacket.constructTitlePacket(GenericTitlePacket.ActionType.SET_SUBTITLE, version);
-        packet.setComponent(new ComponentHolder(version, LimboFilter.getSerializer().deserialize(subtitle)));
+        packet.setComponent(new ComponentHolder(version, this.serializer.deserialize(subtitle)));
         return packet;
       }, ProtocolVersion.MINECRAFT_1_8);
     }
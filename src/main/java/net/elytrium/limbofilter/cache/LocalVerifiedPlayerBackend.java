@@ -0,0 +1,50 @@
+/*
+ * Copyright (C) 2021 - 2025 Elytrium
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.elytrium.limbofilter.cache;
+
+import java.net.InetAddress;
+
+public class LocalVerifiedPlayerBackend implements VerifiedPlayerBackend {
+
+  private final VerifiedPlayerCache cache;
+  private final VerifiedPlayerStore store;
+
+  public LocalVerifiedPlayerBackend(VerifiedPlayerCache cache, VerifiedPlayerStore store) {
+    this.cache = cache;
+    this.store = store;
+  }
+
+  @Override
+  public boolean isVerified(String username, InetAddress address) {
+    return this.cache.isVerified(username, address);
+  }
+
+  @Override
+  public void put(String username, InetAddress address, long expiry) {
+    if (this.cache.put(username, address, expiry)) {
+      this.store.put(username, address, expiry);
+    }
+  }
+
+  @Override
+  public void remove(String username) {
+    if (this.cache.remove(username)) {
+      this.store.remove(username);
+    }
+  }
+}
@@ -0,0 +1,106 @@
+/*
+ * Copyright (C) 2021 - 2025 Elytrium
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.elytrium.limbofilter.cache;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.function.Consumer;
+
+// Binary dump of verified players to move them between proxies, not tied to the hashing key of either of them.
+// magic | version | (username length (1) | username (UTF-8) | address length (1) | address | expiry (8))...
+public class VerifiedPlayerArchive {
+
+  private static final int MAGIC = 0x4C465650;
+  private static final int VERSION = 1;
+  private static final int BUFFER_SIZE = 1 << 16;
+
+  public static int read(Path file, Consumer<VerifiedPlayerStore.Entry> consumer) throws IOException {
+    try (DataInputStream input = new DataInputStream(new BufferedInputStream(Files.newInputStream(file), BUFFER_SIZE))) {
+      if (input.readInt() != MAGIC) {
+        throw new IOException(file + " is not a verified players archive");
+      }
+
+      int version = input.readUnsignedByte();
+      if (version != VERSION) {
+        throw new IOException("Unsupported verified players archive version " + version);
+      }
+
+      long currentTime = System.currentTimeMillis();
+      byte[] username = new byte[255];
+      int count = 0;
+      int usernameLength;
+      while ((usernameLength = input.read()) != -1) {
+        input.readFully(username, 0, usernameLength);
+        byte[] address = new byte[input.readUnsignedByte()];
+        input.readFully(address);
+        long expiry = input.readLong();
+        if (expiry > currentTime) {
+          consumer.accept(new VerifiedPlayerStore.Entry(new String(username, 0, usernameLength, StandardCharsets.UTF_8),
+              InetAddress.getByAddress(address), expiry));
+          ++count;
+        }
+      }
+
+      return count;
+    }
+  }
+
+  public static class Writer implements Closeable {
+
+    private final DataOutputStream output;
+    private int count;
+
+    public Writer(Path file) throws IOException {
+      this.output = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(file), BUFFER_SIZE));
+      this.output.writeInt(MAGIC);
+      this.output.writeByte(VERSION);
+    }
+
+    public void write(VerifiedPlayerStore.Entry entry) throws IOException {
+      byte[] username = entry.getUsername().getBytes(StandardCharsets.UTF_8);
+      byte[] address = entry.getAddress().getAddress();
+      if (username.length > 255) {
+        return;
+      }
+
+      this.output.writeByte(username.length);
+      this.output.write(username);
+      this.output.writeByte(address.length);
+      this.output.write(address);
+      this.output.writeLong(entry.getExpiry());
+      ++this.count;
+    }
+
+    public int getCount() {
+      return this.count;
+    }
+
+    @Override
+    public void close() throws IOException {
+      this.output.close();
+    }
+  }
+}
@@ -0,0 +1,33 @@
+/*
+ * Copyright (C) 2021 - 2025 Elytrium
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.elytrium.limbofilter.cache;
+
+import java.net.InetAddress;
+
+public interface VerifiedPlayerBackend {
+
+  boolean isVerified(String username, InetAddress address);
+
+  void put(String username, InetAddress address, long expiry);
+
+  void remove(String username);
+
+  default void close() {
+
+  }
+}
@@ -0,0 +1,426 @@
+/*
+ * Copyright (C) 2021 - 2025 Elytrium
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.elytrium.limbofilter.cache;
+
+import java.net.InetAddress;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.StampedLock;
+import java.util.function.LongConsumer;
+import net.elytrium.limbofilter.utils.AddressUtils;
+import net.elytrium.limbofilter.utils.AsnTable;
+import net.elytrium.limbofilter.utils.SipHash;
+
+// Players are stored by a keyed 64-bit hash of the username, so no Strings or InetAddresses are kept.
+// The key is secret, so usernames colliding with a verified one can't be crafted, and the address has to match too.
+public class VerifiedPlayerCache {
+
+  private static final int SEGMENT_SHIFT = 58;
+  private static final int SEGMENTS = 1 << (64 - SEGMENT_SHIFT);
+  private static final int MIN_FILTER_CAPACITY = 1024;
+  // Purge rebuilds the filter once the removed players make up this fraction of the current ones, e.g. 4 means a quarter.
+  private static final int FILTER_REBUILD_REMOVED_RATIO = 4;
+
+  private final Segment[] segments = new Segment[SEGMENTS];
+  // Hashes by expiry second, an entry may be outdated if the user was cached again or removed.
+  private final NavigableMap<Long, HashBucket> expiryIndex = new ConcurrentSkipListMap<>();
+  private final SipHash hasher;
+  private final AtomicBoolean rebuildingFilter = new AtomicBoolean();
+  // Players removed from the table but maybe still set in the filter.
+  private final AtomicInteger removedSinceRebuild = new AtomicInteger();
+  private volatile AddressMatcher addressMatcher = AddressMatcher.EXACT;
+  // Most of the usernames seen during a bot attack aren't verified, they are rejected by the filter without touching the table.
+  // Removed players stay in the filter until it's rebuilt.
+  private volatile BlockedBloomFilter filter = new BlockedBloomFilter(MIN_FILTER_CAPACITY);
+  // Set while the filter is rebuilt, so the players added meanwhile aren't lost.
+  private volatile BlockedBloomFilter nextFilter;
+
+  public VerifiedPlayerCache(long key0, long key1) {
+    for (int i = 0; i < SEGMENTS; ++i) {
+      this.segments[i] = new Segment();
+    }
+
+    this.hasher = new SipHash(key0, key1);
+  }
+
+  public void setAddressMatcher(AddressMatcher addressMatcher) {
+    this.addressMatcher = addressMatcher;
+  }
+
+  public boolean isVerified(String username, InetAddress address) {
+    long hash = this.hash(username);
+    if (!this.filter.mightContain(hash)) {
+      return false;
+    }
+
+    byte[] bytes = address.getAddress();
+    return this.getSegment(hash).get(hash, AddressUtils.getHigh(bytes), AddressUtils.getLow(bytes), this.addressMatcher) != 0;
+  }
+
+  public boolean isCurrent(String username, InetAddress address, long expiry) {
+    long hash = this.hash(username);
+    byte[] bytes = address.getAddress();
+    return this.getSegment(hash).get(hash, AddressUtils.getHigh(bytes), AddressUtils.getLow(bytes), AddressMatcher.EXACT) == expiry;
+  }
+
+  // Returns true if the entry was written. Entries that never expire (the whitelist) are only replaced by ones that never expire too.
+  public boolean put(String username, InetAddress address, long expiry) {
+    return this.put(username, address, expiry, true);
+  }
+
+  public boolean putIfAbsent(String username, InetAddress address, long expiry) {
+    return this.put(username, address, expiry, false);
+  }
+
+  private boolean put(String username, InetAddress address, long expiry, boolean replace) {
+    long hash = this.hash(username);
+    byte[] bytes = address.getAddress();
+    if (!this.getSegment(hash).put(hash, AddressUtils.getHigh(bytes), AddressUtils.getLow(bytes), expiry, replace)) {
+      return false;
+    }
+
+    this.addToFilter(hash);
+    if (expiry != Long.MAX_VALUE) {
+      this.expiryIndex.computeIfAbsent(expiry / 1000, second -> new HashBucket()).add(hash);
+    }
+
+    return true;
+  }
+
+  private void addToFilter(long hash) {
+    // Read in the reverse order of the writes in rebuildFilter, otherwise the hash may end up only in the replaced filter.
+    BlockedBloomFilter nextFilter = this.nextFilter;
+    BlockedBloomFilter filter = this.filter;
+    filter.add(hash);
+    if (nextFilter != null && nextFilter != filter) {
+      nextFilter.add(hash);
+    }
+
+    if (filter.isFull() && this.rebuildingFilter.compareAndSet(false, true)) {
+      ForkJoinPool.commonPool().execute(this::rebuildFilter);
+    }
+  }
+
+  // Drops the removed players from the filter and resizes it to the current amount of entries.
+  private void rebuildFilter() {
+    try {
+      // Players removed during the scan may still be added to the new filter, so they stay counted.
+      int removed = this.removedSinceRebuild.get();
+      BlockedBloomFilter nextFilter = new BlockedBloomFilter(Math.max(this.size() * 2, MIN_FILTER_CAPACITY));
+      this.nextFilter = nextFilter;
+      for (Segment segment : this.segments) {
+        segment.forEachHash(nextFilter::add);
+      }
+
+      this.filter = nextFilter;
+      this.nextFilter = null;
+      this.removedSinceRebuild.addAndGet(-removed);
+    } finally {
+      this.rebuildingFilter.set(false);
+    }
+  }
+
+  public boolean remove(String username) {
+    long hash = this.hash(username);
+    return this.removeHash(hash, Long.MAX_VALUE);
+  }
+
+  private boolean removeHash(long hash, long maxExpiry) {
+    if (this.getSegment(hash).remove(hash, maxExpiry)) {
+      this.removedSinceRebuild.incrementAndGet();
+      return true;
+    }
+
+    return false;
+  }
+
+  // Only buckets of the seconds that have already passed are touched, new entries never expire in the past.
+  // The filter is rebuilt only if it's full or enough players were removed to make it noticeably less selective.
+  public void purge(long currentTime) {
+    Map<Long, HashBucket> expired = this.expiryIndex.headMap(currentTime / 1000);
+    expired.values().forEach(bucket -> bucket.forEach(hash -> this.removeHash(hash, currentTime)));
+    expired.clear();
+
+    boolean shouldRebuild = this.filter.isFull() || (long) this.removedSinceRebuild.get() * FILTER_REBUILD_REMOVED_RATIO > this.size();
+    if (shouldRebuild && this.rebuildingFilter.compareAndSet(false, true)) {
+      this.rebuildFilter();
+    }
+  }
+
+  public int size() {
+    int size = 0;
+    for (Segment segment : this.segments) {
+      size += segment.size();
+    }
+
+    return size;
+  }
+
+  private long hash(String username) {
+    long hash = this.hasher.hash(username);
+    // Zero marks free slots.
+    return hash == 0 ? 1 : hash;
+  }
+
+  private Segment getSegment(long hash) {
+    return this.segments[(int) (hash >>> SEGMENT_SHIFT)];
+  }
+
+  private static class Segment {
+
+    // hash, address high, address low, expiry.
+    private static final int STRIDE = 4;
+    private static final int INITIAL_CAPACITY = 64;
+
+    private final StampedLock lock = new StampedLock();
+    private long[] table = new long[INITIAL_CAPACITY * STRIDE];
+    private int size;
+
+    // Returns the expiry, or 0 if there's no such entry.
+    private long get(long hash, long high, long low, AddressMatcher matcher) {
+      long stamp = this.lock.tryOptimisticRead();
+      long expiry = find(this.table, hash, high, low, matcher);
+      if (!this.lock.validate(stamp)) {
+        stamp = this.lock.readLock();
+        try {
+          expiry = find(this.table, hash, high, low, matcher);
+        } finally {
+          this.lock.unlockRead(stamp);
+        }
+      }
+
+      return expiry;
+    }
+
+    private static long find(long[] table, long hash, long high, long low, AddressMatcher matcher) {
+      int mask = table.length / STRIDE - 1;
+      for (int index = (int) hash & mask; ; index = (index + 1) & mask) {
+        int offset = index * STRIDE;
+        long slotHash = table[offset];
+        if (slotHash == 0) {
+          return 0;
+        }
+
+        if (slotHash == hash) {
+          return matcher.matches(table[offset + 1], table[offset + 2], high, low) ? table[offset + 3] : 0;
+        }
+      }
+    }
+
+    // Returns true if the entry was written.
+    private boolean put(long hash, long high, long low, long expiry, boolean replace) {
+      long stamp = this.lock.writeLock();
+      try {
+        if ((this.size + 1) * 4L > this.table.length / STRIDE * 3L) {
+          this.resize();
+        }
+
+        long[] table = this.table;
+        int mask = table.length / STRIDE - 1;
+        for (int index = (int) hash & mask; ; index = (index + 1) & mask) {
+          int offset = index * STRIDE;
+          long slotHash = table[offset];
+          if (slotHash == hash && (!replace || (table[offset + 3] == Long.MAX_VALUE && expiry != Long.MAX_VALUE))) {
+            return false;
+          }
+
+          if (slotHash == 0 || slotHash == hash) {
+            if (slotHash == 0) {
+              ++this.size;
+            }
+
+            table[offset + 1] = high;
+            table[offset + 2] = low;
+            table[offset + 3] = expiry;
+            table[offset] = hash;
+            return true;
+          }
+        }
+      } finally {
+        this.lock.unlockWrite(stamp);
+      }
+    }
+
+    // Removes the entry if it expires no later than the given time.
+    private boolean remove(long hash, long maxExpiry) {
+      long stamp = this.lock.writeLock();
+      try {
+        long[] table = this.table;
+        int mask = table.length / STRIDE - 1;
+        for (int index = (int) hash & mask; ; index = (index + 1) & mask) {
+          int offset = index * STRIDE;
+          long slotHash = table[offset];
+          if (slotHash == 0) {
+            return false;
+          }
+
+          if (slotHash == hash) {
+            if (table[offset + 3] > maxExpiry) {
+              return false;
+            }
+
+            this.delete(index);
+            return true;
+          }
+        }
+      } finally {
+        this.lock.unlockWrite(stamp);
+      }
+    }
+
+    // Backward shift deletion, keeps the probe sequences without tombstones.
+    private void delete(int index) {
+      long[] table = this.table;
+      int mask = table.length / STRIDE - 1;
+      int next = index;
+      while (true) {
+        next = (next + 1) & mask;
+        long nextHash = table[next * STRIDE];
+        if (nextHash == 0) {
+          break;
+        }
+
+        int home = (int) nextHash & mask;
+        if (index <= next ? (home <= index || home > next) : (home <= index && home > next)) {
+          System.arraycopy(table, next * STRIDE, table, index * STRIDE, STRIDE);
+          index = next;
+        }
+      }
+
+      Arrays.fill(table, index * STRIDE, index * STRIDE + STRIDE, 0);
+      --this.size;
+    }
+
+    private void resize() {
+      long[] oldTable = this.table;
+      long[] newTable = new long[oldTable.length * 2];
+      int mask = newTable.length / STRIDE - 1;
+      for (int offset = 0; offset < oldTable.length; offset += STRIDE) {
+        long hash = oldTable[offset];
+        if (hash != 0) {
+          int index = (int) hash & mask;
+          while (newTable[index * STRIDE] != 0) {
+            index = (index + 1) & mask;
+          }
+
+          System.arraycopy(oldTable, offset, newTable, index * STRIDE, STRIDE);
+        }
+      }
+
+      this.table = newTable;
+    }
+
+    private void forEachHash(LongConsumer consumer) {
+      long stamp = this.lock.readLock();
+      try {
+        long[] table = this.table;
+        for (int offset = 0; offset < table.length; offset += STRIDE) {
+          if (table[offset] != 0) {
+            consumer.accept(table[offset]);
+          }
+        }
+      } finally {
+        this.lock.unlockRead(stamp);
+      }
+    }
+
+    private int size() {
+      long stamp = this.lock.readLock();
+      try {
+        return this.size;
+      } finally {
+        this.lock.unlockRead(stamp);
+      }
+    }
+  }
+
+  public interface AddressMatcher {
+
+    AddressMatcher EXACT = (cachedHigh, cachedLow, high, low) -> cachedHigh == high && cachedLow == low;
+
+    boolean matches(long cachedHigh, long cachedLow, long high, long low);
+
+    // Prefixes are applied to IPv4-mapped addresses for IPv4.
+    static AddressMatcher subnet(int ipv4Prefix, int ipv6Prefix) {
+      long ipv4LowMask = prefixMask(ipv4Prefix + 32);
+      long ipv6HighMask = prefixMask(ipv6Prefix);
+      long ipv6LowMask = prefixMask(ipv6Prefix - 64);
+      return (cachedHigh, cachedLow, high, low) -> {
+        if (cachedHigh != high) {
+          return high != 0 && ((cachedHigh ^ high) & ipv6HighMask) == 0 && ((cachedLow ^ low) & ipv6LowMask) == 0;
+        }
+
+        if (high == 0 && (low >>> 32) == 0xFFFF) {
+          return ((cachedLow ^ low) & ipv4LowMask) == 0;
+        }
+
+        return ((cachedLow ^ low) & ipv6LowMask) == 0;
+      };
+    }
+
+    static AddressMatcher asn(AsnTable asnTable) {
+      return (cachedHigh, cachedLow, high, low) -> {
+        if (cachedHigh == high && cachedLow == low) {
+          return true;
+        }
+
+        int asn = asnTable.getAsn(high, low);
+        return asn != AsnTable.UNKNOWN && asn == asnTable.getAsn(cachedHigh, cachedLow);
+      };
+    }
+
+    private static long prefixMask(int prefix) {
+      if (prefix <= 0) {
+        return 0;
+      }
+
+      return prefix >= 64 ? -1L : -1L << (64 - prefix);
+    }
+  }
+
+  public enum AddressMatch {
+    EXACT,
+    SUBNET,
+    ASN
+  }
+
+  private static class HashBucket {
+
+    private long[] hashes = new long[8];
+    private int size;
+
+    private synchronized void add(long hash) {
+      if (this.size == this.hashes.length) {
+        this.hashes = Arrays.copyOf(this.hashes, this.size * 2);
+      }
+
+      this.hashes[this.size++] = hash;
+    }
+
+    private synchronized void forEach(LongConsumer consumer) {
+      for (int i = 0; i < this.size; ++i) {
+        consumer.accept(this.hashes[i]);
+      }
+    }
+  }
+}
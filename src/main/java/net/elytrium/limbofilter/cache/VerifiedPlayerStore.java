@@ -0,0 +1,377 @@
+/*
+ * Copyright (C) 2021 - 2025 Elytrium
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.elytrium.limbofilter.cache;
+
+import com.google.common.net.InetAddresses;
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.SecureRandom;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+import net.elytrium.limbofilter.LimboFilter;
+
+// Append-only log of verified players, compacted once it mostly consists of outdated records.
+// The first line holds the key the usernames are hashed with in the cache.
+// The file is only touched by the writer thread, put and remove just queue the record, so they never block on disk I/O.
+public class VerifiedPlayerStore {
+
+  private static final char HEADER = '#';
+  private static final char PUT = '+';
+  private static final char REMOVE = '-';
+  private static final int MIN_RECORDS_TO_COMPACT = 1024;
+  private static final long CLOSE_TIMEOUT_SECONDS = 10;
+
+  private final Path file;
+  private final long[] key = new long[2];
+  private final ExecutorService writerExecutor = Executors.newSingleThreadExecutor(runnable -> {
+    Thread thread = new Thread(runnable, "LimboFilter Verified Players Writer");
+    thread.setDaemon(true);
+    return thread;
+  });
+
+  private boolean hasHeader;
+  private BufferedWriter writer;
+  private long records;
+
+  public VerifiedPlayerStore(Path file) {
+    this.file = file;
+  }
+
+  // Reads the hashing key, or creates a new one if there's no file yet. Must be called before anything else.
+  public long[] readKey() {
+    if (Files.exists(this.file)) {
+      try (BufferedReader reader = Files.newBufferedReader(this.file, StandardCharsets.UTF_8)) {
+        String line = reader.readLine();
+        if (line != null && !line.isEmpty() && line.charAt(0) == HEADER) {
+          String[] header = line.split("\t");
+          this.key[0] = Long.parseUnsignedLong(header[1], 16);
+          this.key[1] = Long.parseUnsignedLong(header[2], 16);
+          this.hasHeader = true;
+          return this.key.clone();
+        }
+      } catch (IOException | RuntimeException e) {
+        LimboFilter.getLogger().warn("Failed to read the key from " + this.file + ", a new one will be created", e);
+      }
+    }
+
+    SecureRandom random = new SecureRandom();
+    this.key[0] = random.nextLong();
+    this.key[1] = random.nextLong();
+    return this.key.clone();
+  }
+
+  // Records queued before the load finishes are appended after it.
+  // The records hold plain usernames, so a log without a valid key header is still read and then rewritten with the new key.
+  public CompletableFuture<Void> load(Consumer<Entry> consumer) {
+    return this.submit(() -> {
+      Map<String, Entry> entries = new HashMap<>();
+      if (Files.exists(this.file)) {
+        long currentTime = System.currentTimeMillis();
+        try (BufferedReader reader = Files.newBufferedReader(this.file, StandardCharsets.UTF_8)) {
+          String line;
+          while ((line = reader.readLine()) != null) {
+            ++this.records;
+            String[] record = line.split("\t");
+            if (record[0].equals(String.valueOf(REMOVE)) && record.length == 2) {
+              entries.remove(record[1]);
+            } else {
+              Entry entry = this.parsePut(line, record);
+              if (entry != null && entry.getExpiry() > currentTime) {
+                entries.put(entry.getUsername(), entry);
+              } else if (entry != null) {
+                entries.remove(entry.getUsername());
+              }
+            }
+          }
+        }
+      }
+
+      entries.values().forEach(consumer);
+      if (this.hasHeader) {
+        this.openWriter();
+      } else {
+        this.rewrite(entries.values());
+      }
+    });
+  }
+
+  public void put(String username, InetAddress address, long expiry) {
+    this.write(formatPut(username, address, expiry));
+  }
+
+  public void remove(String username) {
+    this.write(REMOVE + "\t" + username);
+  }
+
+  private void write(String record) {
+    this.execute(() -> {
+      if (this.writer == null) {
+        return;
+      }
+
+      try {
+        this.writer.write(record);
+        this.writer.newLine();
+        ++this.records;
+      } catch (IOException e) {
+        LimboFilter.getLogger().error("Failed to write to " + this.file, e);
+      }
+    });
+  }
+
+  public CompletableFuture<Void> flush() {
+    return this.submit(this::flushWriter);
+  }
+
+  private void flushWriter() throws IOException {
+    if (this.writer != null) {
+      this.writer.flush();
+    }
+  }
+
+  // Streams the put records that haven't expired yet, including the outdated ones.
+  // Reads a copy of the log made on the writer thread, so the writes are only held back while the file is copied.
+  public void forEach(Consumer<Entry> consumer) throws IOException {
+    Path snapshot = Files.createTempFile(this.file.toAbsolutePath().getParent(), this.file.getFileName().toString(), ".snapshot");
+    try {
+      this.submit(() -> {
+        if (this.writer == null) {
+          throw new IllegalStateException("Verified players are not saved, enable save-verified-players");
+        }
+
+        this.writer.flush();
+        Files.copy(this.file, snapshot, StandardCopyOption.REPLACE_EXISTING);
+      }).join();
+    } catch (CompletionException e) {
+      Files.deleteIfExists(snapshot);
+      if (e.getCause() instanceof IOException) {
+        throw (IOException) e.getCause();
+      }
+
+      throw e.getCause() instanceof RuntimeException ? (RuntimeException) e.getCause() : e;
+    }
+
+    long currentTime = System.currentTimeMillis();
+    try (BufferedReader reader = Files.newBufferedReader(snapshot, StandardCharsets.UTF_8)) {
+      String line;
+      while ((line = reader.readLine()) != null) {
+        Entry entry = this.parsePut(line, line.split("\t"));
+        if (entry != null && entry.getExpiry() > currentTime) {
+          consumer.accept(entry);
+        }
+      }
+    } finally {
+      Files.deleteIfExists(snapshot);
+    }
+  }
+
+  // Flushes the log and keeps only the put records that are still live once it mostly consists of outdated records.
+  // The usernames are only known to the log itself.
+  public void save(int liveEntries, Predicate<Entry> isLive) {
+    this.execute(() -> {
+      if (this.writer == null) {
+        return;
+      }
+
+      try {
+        this.writer.flush();
+      } catch (IOException e) {
+        LimboFilter.getLogger().error("Failed to flush " + this.file, e);
+      }
+
+      if (this.records > MIN_RECORDS_TO_COMPACT && this.records > liveEntries * 2L) {
+        this.compact(isLive);
+      }
+    });
+  }
+
+  private void compact(Predicate<Entry> isLive) {
+    Path temp = this.file.resolveSibling(this.file.getFileName() + ".tmp");
+    try {
+      this.writer.close();
+      this.writer = null;
+
+      long compactedRecords = 0;
+      long currentTime = System.currentTimeMillis();
+      try (BufferedReader reader = Files.newBufferedReader(this.file, StandardCharsets.UTF_8);
+          BufferedWriter tempWriter = Files.newBufferedWriter(temp, StandardCharsets.UTF_8)) {
+        this.writeHeader(tempWriter);
+
+        String line;
+        while ((line = reader.readLine()) != null) {
+          Entry entry = this.parsePut(line, line.split("\t"));
+          if (entry != null && entry.getExpiry() > currentTime && isLive.test(entry)) {
+            tempWriter.write(formatPut(entry.getUsername(), entry.getAddress(), entry.getExpiry()));
+            tempWriter.newLine();
+            ++compactedRecords;
+          }
+        }
+      }
+
+      Files.move(temp, this.file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+      this.records = compactedRecords;
+    } catch (IOException e) {
+      LimboFilter.getLogger().error("Failed to compact " + this.file, e);
+    } finally {
+      this.openWriter();
+    }
+  }
+
+  private void rewrite(Collection<Entry> entries) throws IOException {
+    Path temp = this.file.resolveSibling(this.file.getFileName() + ".tmp");
+    try (BufferedWriter tempWriter = Files.newBufferedWriter(temp, StandardCharsets.UTF_8)) {
+      this.writeHeader(tempWriter);
+      for (Entry entry : entries) {
+        tempWriter.write(formatPut(entry.getUsername(), entry.getAddress(), entry.getExpiry()));
+        tempWriter.newLine();
+      }
+    }
+
+    Files.move(temp, this.file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    this.records = entries.size();
+    this.hasHeader = true;
+    this.openWriter();
+  }
+
+  private void writeHeader(BufferedWriter writer) throws IOException {
+    writer.write(HEADER + "\t" + Long.toHexString(this.key[0]) + "\t" + Long.toHexString(this.key[1]));
+    writer.newLine();
+  }
+
+  private static String formatPut(String username, InetAddress address, long expiry) {
+    return PUT + "\t" + username + "\t" + InetAddresses.toAddrString(address) + "\t" + expiry;
+  }
+
+  private Entry parsePut(String line, String[] record) {
+    if (line.isEmpty() || line.charAt(0) == HEADER || record.length != 4 || !record[0].equals(String.valueOf(PUT))) {
+      return null;
+    }
+
+    try {
+      // Only accepts IP literals, a hostname here must not end up in a DNS lookup.
+      return new Entry(record[1], InetAddresses.forString(record[2]), Long.parseLong(record[3]));
+    } catch (IllegalArgumentException e) {
+      LimboFilter.getLogger().warn("Skipping malformed line in {}: {}", this.file, line);
+      return null;
+    }
+  }
+
+  // Writes everything queued so far and stops the writer thread.
+  public void close() {
+    this.execute(() -> {
+      if (this.writer == null) {
+        return;
+      }
+
+      try {
+        this.writer.close();
+      } catch (IOException e) {
+        LimboFilter.getLogger().error("Failed to close " + this.file, e);
+      }
+
+      this.writer = null;
+    });
+
+    this.writerExecutor.shutdown();
+    try {
+      if (!this.writerExecutor.awaitTermination(CLOSE_TIMEOUT_SECONDS, TimeUnit.SECONDS)) {
+        LimboFilter.getLogger().warn("Timed out while saving verified players to {}", this.file);
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  private void openWriter() {
+    try {
+      this.writer = Files.newBufferedWriter(this.file, StandardCharsets.UTF_8, StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+    } catch (IOException e) {
+      this.writer = null;
+      LimboFilter.getLogger().error("Failed to open " + this.file + ", verified players won't be saved", e);
+    }
+  }
+
+  // Records passed after close are dropped, the same way they are while saving is disabled.
+  private void execute(Runnable task) {
+    try {
+      this.writerExecutor.execute(task);
+    } catch (RejectedExecutionException e) {
+      // Closed.
+    }
+  }
+
+  private CompletableFuture<Void> submit(IoTask task) {
+    try {
+      return CompletableFuture.runAsync(() -> {
+        try {
+          task.run();
+        } catch (IOException e) {
+          throw new CompletionException(e);
+        }
+      }, this.writerExecutor);
+    } catch (RejectedExecutionException e) {
+      return CompletableFuture.failedFuture(new IllegalStateException("Verified players store is closed"));
+    }
+  }
+
+  private interface IoTask {
+
+    void run() throws IOException;
+  }
+
+  public static class Entry {
+
+    private final String username;
+    private final InetAddress address;
+    private final long expiry;
+
+    public Entry(String username, InetAddress address, long expiry) {
+      this.username = username;
+      this.address = address;
+      this.expiry = expiry;
+    }
+
+    public String getUsername() {
+      return this.username;
+    }
+
+    public InetAddress getAddress() {
+      return this.address;
+    }
+
+    public long getExpiry() {
+      return this.expiry;
+    }
+  }
+}
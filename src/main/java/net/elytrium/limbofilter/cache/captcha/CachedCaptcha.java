@@ -31,6 +31,7 @@ import org.checkerframework.checker.nullness.qual.MonotonicNonNull;
 
 public class CachedCaptcha {
   private final LimboFilter plugin;
+  private final Settings.MAIN settings;
   private final AtomicInteger threadIdCounter = new AtomicInteger(0);
   private final ThreadLocal<Integer> threadId = ThreadLocal.withInitial(this.threadIdCounter::getAndIncrement);
   private final CaptchaHolder[] firstHolders;
@@ -43,7 +44,8 @@ public class CachedCaptcha {
   private ThreadLocal<CaptchaHolder> captchaIterator;
   private boolean disposed;
 
-  public CachedCaptcha(LimboFilter plugin, int threadsCount) {
+  public CachedCaptcha(LimboFilter plugin, Settings.MAIN settings, int threadsCount) {
+    this.settings = settings;
     this.plugin = plugin;
     this.firstHolders = new CaptchaHolder[threadsCount];
     this.lastHolders = new CaptchaHolder[threadsCount];
@@ -82,10 +84,10 @@ public class CachedCaptcha {
       }
     }
 
-    if (Settings.IMP.MAIN.CAPTCHA_GENERATOR.PREPARE_CAPTCHA_PACKETS) {
+    if (this.settings.CAPTCHA_GENERATOR.PREPARE_CAPTCHA_PACKETS) {
       PreparedPacket prepared = this.plugin.getLimboFactory().createPreparedPacket();
-      if (Settings.IMP.MAIN.FRAMED_CAPTCHA.FRAMED_CAPTCHA_ENABLED) {
-        for (int i = 0; i < Settings.IMP.MAIN.FRAMED_CAPTCHA.WIDTH * Settings.IMP.MAIN.FRAMED_CAPTCHA.HEIGHT; i++) {
+      if (this.settings.FRAMED_CAPTCHA.FRAMED_CAPTCHA_ENABLED) {
+        for (int i = 0; i < this.settings.FRAMED_CAPTCHA.WIDTH * this.settings.FRAMED_CAPTCHA.HEIGHT; i++) {
           final int index = i;
           prepared.prepare(version -> mapDataPacketEnum[version.ordinal()][index], ProtocolVersion.MINECRAFT_1_8);
         }
@@ -41,6 +41,7 @@ import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ThreadLocalRandom;
 import java.util.concurrent.ThreadPoolExecutor;
@@ -64,6 +65,7 @@ public class CaptchaGenerator {
   private final List<RenderedFont> fonts = new LinkedList<>();
   private final List<byte[]> colors = new LinkedList<>();
   private final LimboFilter plugin;
+  private final Settings.MAIN settings;
 
   private ThreadPoolExecutor executor;
   private boolean shouldStop;
@@ -73,20 +75,21 @@ public class CaptchaGenerator {
   private ThreadLocal<Iterator<RenderedFont>> fontIterator;
   private ThreadLocal<Iterator<byte[]>> colorIterator;
 
-  public CaptchaGenerator(LimboFilter plugin) {
+  public CaptchaGenerator(LimboFilter plugin, Settings.MAIN settings) {
+    this.settings = settings;
     this.plugin = plugin;
-    if (Settings.IMP.MAIN.FRAMED_CAPTCHA.FRAMED_CAPTCHA_ENABLED) {
-      this.painter = new CaptchaPainter(
-          MapData.MAP_DIM_SIZE * Settings.IMP.MAIN.FRAMED_CAPTCHA.WIDTH,
-          MapData.MAP_DIM_SIZE * Settings.IMP.MAIN.FRAMED_CAPTCHA.HEIGHT);
+    if (this.settings.FRAMED_CAPTCHA.FRAMED_CAPTCHA_ENABLED) {
+      this.painter = new CaptchaPainter(settings,
+          MapData.MAP_DIM_SIZE * this.settings.FRAMED_CAPTCHA.WIDTH,
+          MapData.MAP_DIM_SIZE * this.settings.FRAMED_CAPTCHA.HEIGHT);
     } else {
-      this.painter = new CaptchaPainter(MapData.MAP_DIM_SIZE, MapData.MAP_DIM_SIZE);
+      this.painter = new CaptchaPainter(settings, MapData.MAP_DIM_SIZE, MapData.MAP_DIM_SIZE);
     }
   }
 
   public void initializeGenerator() {
     try {
-      for (String backplatePath : Settings.IMP.MAIN.CAPTCHA_GENERATOR.BACKPLATE_PATHS) {
+      for (String backplatePath : this.settings.CAPTCHA_GENERATOR.BACKPLATE_PATHS) {
         if (!backplatePath.isEmpty()) {
           CraftMapCanvas craftMapCanvas = this.createCraftMapCanvas();
           craftMapCanvas.drawImage(this.resizeIfNeeded(ImageIO.read(this.plugin.getFile(backplatePath)),
@@ -98,8 +101,8 @@ public class CaptchaGenerator {
       throw new IllegalArgumentException(e);
     }
 
-    if (Settings.IMP.MAIN.CAPTCHA_GENERATOR.SAVE_NUMBER_SPELLING_OUTPUT) {
-      int from = (int) Math.pow(10, Settings.IMP.MAIN.CAPTCHA_GENERATOR.LENGTH - 1);
+    if (this.settings.CAPTCHA_GENERATOR.SAVE_NUMBER_SPELLING_OUTPUT) {
+      int from = (int) Math.pow(10, this.settings.CAPTCHA_GENERATOR.LENGTH - 1);
       int to = from * 10;
 
       try (OutputStream output = new FileOutputStream("number_spelling.txt")) {
@@ -114,29 +117,29 @@ public class CaptchaGenerator {
 
     this.fonts.clear();
 
-    float fontSize = (float) Settings.IMP.MAIN.CAPTCHA_GENERATOR.RENDER_FONT_SIZE;
+    float fontSize = (float) this.settings.CAPTCHA_GENERATOR.RENDER_FONT_SIZE;
 
-    if (Settings.IMP.MAIN.FRAMED_CAPTCHA.FRAMED_CAPTCHA_ENABLED && Settings.IMP.MAIN.FRAMED_CAPTCHA.AUTOSCALE_FONT) {
-      fontSize *= Math.min(Settings.IMP.MAIN.FRAMED_CAPTCHA.WIDTH, Settings.IMP.MAIN.FRAMED_CAPTCHA.HEIGHT);
+    if (this.settings.FRAMED_CAPTCHA.FRAMED_CAPTCHA_ENABLED && this.settings.FRAMED_CAPTCHA.AUTOSCALE_FONT) {
+      fontSize *= Math.min(this.settings.FRAMED_CAPTCHA.WIDTH, this.settings.FRAMED_CAPTCHA.HEIGHT);
     }
 
     Map<TextAttribute, Object> textSettings = Map.of(
         TextAttribute.SIZE,
         fontSize,
         TextAttribute.STRIKETHROUGH,
-        Settings.IMP.MAIN.CAPTCHA_GENERATOR.STRIKETHROUGH,
+        this.settings.CAPTCHA_GENERATOR.STRIKETHROUGH,
         TextAttribute.UNDERLINE,
-        Settings.IMP.MAIN.CAPTCHA_GENERATOR.UNDERLINE
+        this.settings.CAPTCHA_GENERATOR.UNDERLINE
     );
 
-    if (Settings.IMP.MAIN.CAPTCHA_GENERATOR.USE_STANDARD_FONTS) {
+    if (this.settings.CAPTCHA_GENERATOR.USE_STANDARD_FONTS) {
       this.fonts.add(this.getRenderedFont(new Font(Font.SANS_SERIF, Font.PLAIN, (int) fontSize).deriveFont(textSettings)));
       this.fonts.add(this.getRenderedFont(new Font(Font.SERIF, Font.PLAIN, (int) fontSize).deriveFont(textSettings)));
       this.fonts.add(this.getRenderedFont(new Font(Font.MONOSPACED, Font.PLAIN, (int) fontSize).deriveFont(textSettings)));
     }
 
-    if (Settings.IMP.MAIN.CAPTCHA_GENERATOR.FONTS_PATH != null) {
-      Settings.IMP.MAIN.CAPTCHA_GENERATOR.FONTS_PATH.forEach(fontFile -> {
+    if (this.settings.CAPTCHA_GENERATOR.FONTS_PATH != null) {
+      this.settings.CAPTCHA_GENERATOR.FONTS_PATH.forEach(fontFile -> {
         try {
           if (!fontFile.isEmpty()) {
             LimboFilter.getLogger().info("Loading font " + fontFile + ".");
@@ -150,15 +153,15 @@ public class CaptchaGenerator {
       });
     }
 
-    if (Settings.IMP.MAIN.CAPTCHA_GENERATOR.GRADIENT.GRADIENT_ENABLED) {
+    if (this.settings.CAPTCHA_GENERATOR.GRADIENT.GRADIENT_ENABLED) {
       BufferedImage gradientImage = new BufferedImage(this.painter.getWidth(), this.painter.getHeight(), BufferedImage.TYPE_INT_RGB);
       int[] imageData = ((DataBufferInt) gradientImage.getRaster().getDataBuffer()).getData();
       Graphics2D graphics = gradientImage.createGraphics();
 
       ThreadLocalRandom random = ThreadLocalRandom.current();
-      Settings.MAIN.CAPTCHA_GENERATOR.GRADIENT settings = Settings.IMP.MAIN.CAPTCHA_GENERATOR.GRADIENT;
+      Settings.MAIN.CAPTCHA_GENERATOR.GRADIENT settings = this.settings.CAPTCHA_GENERATOR.GRADIENT;
 
-      Color[] colors = Settings.IMP.MAIN.CAPTCHA_GENERATOR.RGB_COLOR_LIST.stream().map(s -> Color.decode("#" + s)).toArray(Color[]::new);
+      Color[] colors = this.settings.CAPTCHA_GENERATOR.RGB_COLOR_LIST.stream().map(s -> Color.decode("#" + s)).toArray(Color[]::new);
 
       List<Double> fractions = settings.FRACTIONS;
 
@@ -189,7 +192,7 @@ public class CaptchaGenerator {
 
       graphics.dispose();
     } else {
-      Settings.IMP.MAIN.CAPTCHA_GENERATOR.RGB_COLOR_LIST.forEach(e ->
+      this.settings.CAPTCHA_GENERATOR.RGB_COLOR_LIST.forEach(e ->
           this.colors.add(new byte[]{MapPalette.tryFastMatchColor(Integer.parseInt(e, 16) | 0xFF000000, ProtocolVersion.MAXIMUM_VERSION)}));
     }
 
@@ -199,27 +202,28 @@ public class CaptchaGenerator {
   }
 
   private CraftMapCanvas createCraftMapCanvas() {
-    if (Settings.IMP.MAIN.FRAMED_CAPTCHA.FRAMED_CAPTCHA_ENABLED) {
-      return new CraftMapCanvas(Settings.IMP.MAIN.FRAMED_CAPTCHA.WIDTH, Settings.IMP.MAIN.FRAMED_CAPTCHA.HEIGHT);
+    if (this.settings.FRAMED_CAPTCHA.FRAMED_CAPTCHA_ENABLED) {
+      return new CraftMapCanvas(this.settings.FRAMED_CAPTCHA.WIDTH, this.settings.FRAMED_CAPTCHA.HEIGHT);
     } else {
       return new CraftMapCanvas(1, 1);
     }
   }
 
   private RenderedFont getRenderedFont(Font font) {
-    boolean scaleFont = Settings.IMP.MAIN.FRAMED_CAPTCHA.FRAMED_CAPTCHA_ENABLED && Settings.IMP.MAIN.FRAMED_CAPTCHA.AUTOSCALE_FONT;
-    int multiplierX = scaleFont ? Settings.IMP.MAIN.FRAMED_CAPTCHA.WIDTH : 1;
-    int multiplierY = scaleFont ? Settings.IMP.MAIN.FRAMED_CAPTCHA.HEIGHT : 1;
+    boolean scaleFont = this.settings.FRAMED_CAPTCHA.FRAMED_CAPTCHA_ENABLED && this.settings.FRAMED_CAPTCHA.AUTOSCALE_FONT;
+    int multiplierX = scaleFont ? this.settings.FRAMED_CAPTCHA.WIDTH : 1;
+    int multiplierY = scaleFont ? this.settings.FRAMED_CAPTCHA.HEIGHT : 1;
 
     return new RenderedFont(font,
         new FontRenderContext(null, true, true),
-        Settings.IMP.MAIN.CAPTCHA_GENERATOR.PATTERN.toCharArray(),
-        Settings.IMP.MAIN.CAPTCHA_GENERATOR.FONT_LETTER_WIDTH * multiplierX,
-        Settings.IMP.MAIN.CAPTCHA_GENERATOR.FONT_LETTER_HEIGHT * multiplierY,
-        Settings.IMP.MAIN.CAPTCHA_GENERATOR.FONT_OUTLINE,
-        (float) Settings.IMP.MAIN.CAPTCHA_GENERATOR.FONT_OUTLINE_RATE,
-        Settings.IMP.MAIN.CAPTCHA_GENERATOR.FONT_OUTLINE_OFFSET_X * multiplierX,
-        Settings.IMP.MAIN.CAPTCHA_GENERATOR.FONT_OUTLINE_OFFSET_Y * multiplierY,
+        this.settings.CAPTCHA_GENERATOR.PATTERN.toCharArray(),
+        this.settings.CAPTCHA_GENERATOR.FONT_LETTER_WIDTH * multiplierX,
+        this.settings.CAPTCHA_GENERATOR.FONT_LETTER_HEIGHT * multiplierY,
+        this.settings.CAPTCHA_GENERATOR.FONT_ROTATE,
+        this.settings.CAPTCHA_GENERATOR.FONT_OUTLINE,
+        (float) this.settings.CAPTCHA_GENERATOR.FONT_OUTLINE_RATE,
+        this.settings.CAPTCHA_GENERATOR.FONT_OUTLINE_OFFSET_X * multiplierX,
+        this.settings.CAPTCHA_GENERATOR.FONT_OUTLINE_OFFSET_Y * multiplierY,
         1.35
     );
   }
@@ -249,20 +253,31 @@ public class CaptchaGenerator {
     System.arraycopy(temp, 0, mapImage, 0, MapData.MAP_SIZE);
   }
 
+  // Completes once the new captchas are served, or right away if they are already being generated.
+  // Completes exceptionally if the generation fails, the previous captchas are kept in that case.
   @SuppressWarnings("StatementWithEmptyBody")
-  public void generateImages() {
+  public CompletableFuture<Void> generateImages() {
     if (this.shouldStop) {
-      return;
+      return CompletableFuture.completedFuture(null);
     }
     this.shouldStop = true;
 
-    if (this.tempCachedCaptcha != null) {
-      this.tempCachedCaptcha.dispose();
+    CompletableFuture<Void> generated = new CompletableFuture<>();
+
+    try {
+      if (this.tempCachedCaptcha != null) {
+        this.tempCachedCaptcha.dispose();
+      }
+
+      int threadsCount = Runtime.getRuntime().availableProcessors();
+      this.tempCachedCaptcha = new CachedCaptcha(this.plugin, this.settings, threadsCount);
+      this.executor = (ThreadPoolExecutor) Executors.newFixedThreadPool(threadsCount);
+    } catch (RuntimeException e) {
+      this.shouldStop = false;
+      LimboFilter.getLogger().error("Failed to generate captcha", e);
+      return CompletableFuture.failedFuture(e);
     }
 
-    int threadsCount = Runtime.getRuntime().availableProcessors();
-    this.tempCachedCaptcha = new CachedCaptcha(this.plugin, threadsCount);
-    this.executor = (ThreadPoolExecutor) Executors.newFixedThreadPool(threadsCount);
     ThreadGroup threadGroup = Thread.currentThread().getThreadGroup();
     LinkedList<Thread> threads = new LinkedList<>();
     this.executor.setThreadFactory(runnable -> {
@@ -272,31 +287,42 @@ public class CaptchaGenerator {
       return thread;
     });
 
-    for (int i = 0; i < Settings.IMP.MAIN.CAPTCHA_GENERATOR.IMAGES_COUNT; ++i) {
+    for (int i = 0; i < this.settings.CAPTCHA_GENERATOR.IMAGES_COUNT; ++i) {
       this.executor.execute(() -> this.genNewPacket(this.tempCachedCaptcha));
     }
 
     long start = System.currentTimeMillis();
     this.executor.execute(() -> {
-      while (this.executor.getCompletedTaskCount() != Settings.IMP.MAIN.CAPTCHA_GENERATOR.IMAGES_COUNT) {
-        // Busy wait.
-      }
+      try {
+        // Tasks that threw are counted as completed too.
+        while (this.executor.getCompletedTaskCount() != this.settings.CAPTCHA_GENERATOR.IMAGES_COUNT) {
+          // Busy wait.
+        }
 
-      LimboFilter.getLogger().info("Captcha generated in " + (System.currentTimeMillis() - start) + " ms.");
+        LimboFilter.getLogger().info("Captcha generated in " + (System.currentTimeMillis() - start) + " ms.");
 
-      if (this.cachedCaptcha != null) {
-        this.cachedCaptcha.dispose();
-      }
+        threads.forEach(this.plugin.getLimboFactory()::releasePreparedPacketThread);
+        threads.clear();
 
-      threads.forEach(this.plugin.getLimboFactory()::releasePreparedPacketThread);
-      threads.clear();
+        CachedCaptcha previous = this.cachedCaptcha;
+        this.tempCachedCaptcha.build();
+        this.cachedCaptcha = this.tempCachedCaptcha;
+        this.tempCachedCaptcha = null;
+        if (previous != null) {
+          previous.dispose();
+        }
 
-      this.cachedCaptcha = this.tempCachedCaptcha;
-      this.tempCachedCaptcha = null;
-      this.cachedCaptcha.build();
-      this.executor.shutdown();
-      this.shouldStop = false;
+        generated.complete(null);
+      } catch (Throwable t) {
+        LimboFilter.getLogger().error("Failed to generate captcha", t);
+        generated.completeExceptionally(t);
+      } finally {
+        this.executor.shutdown();
+        this.shouldStop = false;
+      }
     });
+
+    return generated;
   }
 
   public void genNewPacket(CachedCaptcha cachedCaptcha) {
@@ -328,8 +354,8 @@ public class CaptchaGenerator {
 
           for (int mapId = 0; mapId < packets.length; mapId++) {
             MapData mapData = map.getMapData(mapId, mapVersion);
-            if (Settings.IMP.MAIN.FRAMED_CAPTCHA.FRAMED_CAPTCHA_ENABLED
-                && random.nextDouble() <= Settings.IMP.MAIN.FRAMED_CAPTCHA.FRAME_ROTATION_CHANCE) {
+            if (this.settings.FRAMED_CAPTCHA.FRAMED_CAPTCHA_ENABLED
+                && random.nextDouble() <= this.settings.FRAMED_CAPTCHA.FRAME_ROTATION_CHANCE) {
               for (int j = 0; j < random.nextInt(4); ++j) {
                 this.rotate(mapData);
               }
@@ -383,10 +409,10 @@ public class CaptchaGenerator {
   private String spellNumber(int number) {
     StringBuilder result = new StringBuilder();
 
-    Map<String, String> exceptions = Settings.IMP.MAIN.CAPTCHA_GENERATOR.NUMBER_SPELLING_EXCEPTIONS;
-    List<List<String>> words = Settings.IMP.MAIN.CAPTCHA_GENERATOR.NUMBER_SPELLING_WORDS;
+    Map<String, String> exceptions = this.settings.CAPTCHA_GENERATOR.NUMBER_SPELLING_EXCEPTIONS;
+    List<List<String>> words = this.settings.CAPTCHA_GENERATOR.NUMBER_SPELLING_WORDS;
 
-    int idx = Settings.IMP.MAIN.CAPTCHA_GENERATOR.LENGTH;
+    int idx = this.settings.CAPTCHA_GENERATOR.LENGTH;
     String n = String.valueOf(number);
 
     while (!n.isEmpty()) {
@@ -411,9 +437,9 @@ public class CaptchaGenerator {
   }
 
   private Pair<String, String> randomAnswer() {
-    int length = Settings.IMP.MAIN.CAPTCHA_GENERATOR.LENGTH;
-    if (!Settings.IMP.MAIN.CAPTCHA_GENERATOR.NUMBER_SPELLING) {
-      String pattern = Settings.IMP.MAIN.CAPTCHA_GENERATOR.PATTERN;
+    int length = this.settings.CAPTCHA_GENERATOR.LENGTH;
+    if (!this.settings.CAPTCHA_GENERATOR.NUMBER_SPELLING) {
+      String pattern = this.settings.CAPTCHA_GENERATOR.PATTERN;
 
       char[] text = new char[length];
       for (int i = 0; i < length; ++i) {
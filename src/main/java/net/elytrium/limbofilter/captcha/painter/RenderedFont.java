@@ -30,19 +30,18 @@ import java.awt.geom.Point2D;
 import java.awt.geom.Rectangle2D;
 import java.util.BitSet;
 import java.util.concurrent.ThreadLocalRandom;
-import net.elytrium.limbofilter.Settings;
 
 public class RenderedFont {
 
   private final Int2ObjectMap<Glyph> charToGlyph = new Int2ObjectOpenHashMap<>();
 
-  public RenderedFont(Font font, FontRenderContext ctx, char[] alphabet, int width, int height, boolean outlineEnabled,
+  public RenderedFont(Font font, FontRenderContext ctx, char[] alphabet, int width, int height, boolean rotate, boolean outlineEnabled,
                       float outlineMultiplier, int outlineOffsetX, int outlineOffsetY, double zoom) {
     ThreadLocalRandom random = ThreadLocalRandom.current();
     for (char c : alphabet) {
       GlyphVector vector = font.createGlyphVector(ctx, String.valueOf(c));
 
-      if (Settings.IMP.MAIN.CAPTCHA_GENERATOR.FONT_ROTATE) {
+      if (rotate) {
         vector.setGlyphTransform(0, AffineTransform.getRotateInstance((random.nextDouble() - 0.5) * Math.PI / 8));
       }
 
@@ -0,0 +1,131 @@
+/*
+ * Copyright (C) 2021 - 2025 Elytrium
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.elytrium.limbofilter.check;
+
+import java.net.InetAddress;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import net.elytrium.limbofilter.Settings;
+
+public class PreSpawnCheck {
+
+  private final Map<InetAddress, Long> badAddresses = new ConcurrentHashMap<>();
+
+  private volatile SubnetRateLimiter subnetLimiter;
+
+  public void reload() {
+    Settings.MAIN.PRE_SPAWN_CHECK settings = Settings.IMP.MAIN.PRE_SPAWN_CHECK;
+    if (settings.SUBNET_CONNECTIONS_LIMIT == -1) {
+      this.subnetLimiter = null;
+    } else {
+      this.subnetLimiter = new SubnetRateLimiter(settings.SUBNET_TABLE_SIZE, settings.SUBNET_CONNECTIONS_LIMIT,
+          settings.SUBNET_CONNECTIONS_LIMIT * 1000.0 / settings.SUBNET_UNIT_OF_TIME_MILLIS, settings.SUBNET_UNIT_OF_TIME_MILLIS,
+          settings.SUBNET_IPV4_PREFIX, settings.SUBNET_IPV6_PREFIX);
+    }
+  }
+
+  public Result check(String username, InetAddress address) {
+    Settings.MAIN.PRE_SPAWN_CHECK settings = Settings.IMP.MAIN.PRE_SPAWN_CHECK;
+    long currentTime = System.currentTimeMillis();
+
+    if (this.isBadAddress(address, currentTime)) {
+      return Result.BAD_ADDRESS;
+    }
+
+    if (settings.MAX_USERNAME_ENTROPY > 0 && getEntropy(username) > settings.MAX_USERNAME_ENTROPY) {
+      return Result.USERNAME_ENTROPY;
+    }
+
+    SubnetRateLimiter subnetLimiter = this.subnetLimiter;
+    if (subnetLimiter != null && !subnetLimiter.tryAcquire(address)) {
+      return Result.SUBNET_RATE;
+    }
+
+    return Result.PASSED;
+  }
+
+  public void markBadAddress(InetAddress address) {
+    Settings.MAIN.PRE_SPAWN_CHECK settings = Settings.IMP.MAIN.PRE_SPAWN_CHECK;
+    if (settings.BAD_ADDRESS_EXPIRE_MILLIS <= 0) {
+      return;
+    }
+
+    if (this.badAddresses.size() >= settings.BAD_ADDRESS_CACHE_SIZE) {
+      this.purge();
+      if (this.badAddresses.size() >= settings.BAD_ADDRESS_CACHE_SIZE) {
+        return;
+      }
+    }
+
+    this.badAddresses.put(address, System.currentTimeMillis() + settings.BAD_ADDRESS_EXPIRE_MILLIS);
+  }
+
+  public void purge() {
+    long currentTime = System.currentTimeMillis();
+    this.badAddresses.values().removeIf(expireTime -> expireTime <= currentTime);
+  }
+
+  private boolean isBadAddress(InetAddress address, long currentTime) {
+    Long expireTime = this.badAddresses.get(address);
+    if (expireTime == null) {
+      return false;
+    }
+
+    if (expireTime <= currentTime) {
+      this.badAddresses.remove(address, expireTime);
+      return false;
+    }
+
+    return true;
+  }
+
+  public static double getEntropy(String username) {
+    int length = username.length();
+    if (length == 0) {
+      return 0;
+    }
+
+    double entropy = 0;
+    for (int i = 0; i < length; ++i) {
+      char current = username.charAt(i);
+      if (username.indexOf(current) != i) {
+        continue;
+      }
+
+      int count = 1;
+      for (int j = i + 1; j < length; ++j) {
+        if (username.charAt(j) == current) {
+          ++count;
+        }
+      }
+
+      double probability = (double) count / length;
+      entropy -= probability * Math.log(probability);
+    }
+
+    return entropy / Math.log(2);
+  }
+
+  public enum Result {
+
+    PASSED,
+    BAD_ADDRESS,
+    USERNAME_ENTROPY,
+    SUBNET_RATE
+  }
+}
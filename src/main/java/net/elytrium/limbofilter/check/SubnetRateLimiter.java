@@ -0,0 +1,139 @@
+/*
+ * Copyright (C) 2021 - 2025 Elytrium
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.elytrium.limbofilter.check;
+
+import java.net.InetAddress;
+import java.util.concurrent.atomic.AtomicLongArray;
+import net.elytrium.limbofilter.utils.AddressUtils;
+
+public class SubnetRateLimiter {
+
+  // ::/48 is never a source address, so the zero key marks an empty slot.
+  private static final long EMPTY = 0;
+  private static final int MAX_PROBES = 16;
+  private static final long MICROTOKENS = 1_000_000L;
+  // Consumed microtokens are capped below 0xFFFFFFFF, so all ones is never a valid state.
+  private static final long RESERVED = -1L;
+
+  // Slot state: high 32 bits - last update time in millis since the limiter creation, low 32 bits - consumed microtokens.
+  private final AtomicLongArray keys;
+  private final AtomicLongArray states;
+  private final int mask;
+  private final long capacity;
+  private final double refillPerMillis;
+  private final long expireMillis;
+  private final int ipv4Prefix;
+  private final int ipv6Prefix;
+  private final long epoch = System.currentTimeMillis();
+
+  public SubnetRateLimiter(int tableSize, int burst, double refillPerSecond, long expireMillis, int ipv4Prefix, int ipv6Prefix) {
+    int size = Integer.highestOneBit(Math.max(tableSize, MAX_PROBES) - 1) << 1;
+    this.keys = new AtomicLongArray(size);
+    this.states = new AtomicLongArray(size);
+    this.mask = size - 1;
+    this.capacity = Math.min((long) burst * MICROTOKENS, 0xFFFFFFFEL);
+    this.refillPerMillis = refillPerSecond * MICROTOKENS / 1000.0;
+    this.expireMillis = expireMillis;
+    this.ipv4Prefix = ipv4Prefix;
+    this.ipv6Prefix = ipv6Prefix;
+  }
+
+  public boolean tryAcquire(InetAddress address) {
+    return this.tryAcquire(AddressUtils.getSubnetKey(address, this.ipv4Prefix, this.ipv6Prefix));
+  }
+
+  public boolean tryAcquire(long key) {
+    if (key == EMPTY) {
+      return true;
+    }
+
+    long now = (System.currentTimeMillis() - this.epoch) & 0xFFFFFFFFL;
+    int index = (int) mix(key) & this.mask;
+    for (int probe = 0; probe < MAX_PROBES; ) {
+      long state = this.states.get(index);
+      if (state == RESERVED) {
+        // The slot is being re-keyed, maybe to this subnet. Taking another slot could split its tokens, and waiting would block
+        // the event loop on another thread, so the connection is let through, like when the neighbourhood is full.
+        return true;
+      }
+
+      long current = this.keys.get(index);
+      if (current == key) {
+        return this.consume(index, now);
+      }
+
+      if (current == EMPTY) {
+        if (this.keys.compareAndSet(index, EMPTY, key) || this.keys.get(index) == key) {
+          return this.consume(index, now);
+        }
+      } else if (this.isExpired(state, now)) {
+        // The slot is reserved before it is re-keyed, so the new subnet never sees the tokens of the evicted one.
+        if (this.states.compareAndSet(index, state, RESERVED)) {
+          this.keys.set(index, key);
+          this.states.set(index, 0);
+          return this.consume(index, now);
+        }
+
+        continue;
+      }
+
+      ++probe;
+      index = (index + 1) & this.mask;
+    }
+
+    // The neighbourhood is full of active subnets, it's better to let the connection through than to block a random one.
+    return true;
+  }
+
+  private boolean consume(int index, long now) {
+    while (true) {
+      long state = this.states.get(index);
+      if (state == RESERVED) {
+        // Evicted meanwhile.
+        return true;
+      }
+
+      long consumed = state & 0xFFFFFFFFL;
+      if (consumed != 0) {
+        long elapsed = (now - (state >>> 32)) & 0xFFFFFFFFL;
+        consumed = Math.max(0, consumed - (long) (elapsed * this.refillPerMillis));
+      }
+
+      if (consumed + MICROTOKENS > this.capacity) {
+        return false;
+      }
+
+      if (this.states.compareAndSet(index, state, (now << 32) | (consumed + MICROTOKENS))) {
+        return true;
+      }
+    }
+  }
+
+  private boolean isExpired(long state, long now) {
+    return state != 0 && state != RESERVED && ((now - (state >>> 32)) & 0xFFFFFFFFL) > this.expireMillis;
+  }
+
+  private static long mix(long key) {
+    key ^= key >>> 33;
+    key *= 0xFF51AFD7ED558CCDL;
+    key ^= key >>> 33;
+    key *= 0xC4CEB9FE1A85EC53L;
+    key ^= key >>> 33;
+    return key;
+  }
+}
@@ -0,0 +1,338 @@
+/*
+ * Copyright (C) 2021 - 2025 Elytrium
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.elytrium.limbofilter.cluster;
+
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.net.SocketException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import net.elytrium.limbofilter.LimboFilter;
+
+// Exchanges small authenticated datagrams with a static list of other proxies.
+// Every message is sent to every peer, nothing is forwarded, so the peers list should be the same on all the proxies.
+// Messages are signed and sent on the sender thread, broadcast only queues them and never blocks.
+public class ClusterNode {
+
+  public static final byte VERIFIED_PLAYER_PUT = 1;
+  public static final byte VERIFIED_PLAYER_REMOVE = 2;
+  public static final byte STATISTICS = 3;
+
+  public static final int MAX_PAYLOAD = 1200;
+
+  private static final short MAGIC = (short) 0x4C46;
+  // magic (2) | type (1) | node id (8) | timestamp (8) | sequence (8) | payload | mac (16)
+  private static final int HEADER_SIZE = 27;
+  private static final int MAC_SIZE = 16;
+  private static final long MAX_CLOCK_SKEW_MILLIS = 30000;
+  // Datagrams may be reordered, a sequence is still accepted once if it's at most this far behind the highest one.
+  private static final int REPLAY_WINDOW = Long.SIZE;
+  // A message older than this has an outdated timestamp anyway, so the node's replay window can be dropped.
+  private static final long REPLAY_WINDOW_TTL_MILLIS = MAX_CLOCK_SKEW_MILLIS * 3;
+  private static final int SEND_QUEUE_CAPACITY = 4096;
+  private static final long CLOSE_TIMEOUT_MILLIS = 1000;
+
+  private final Map<Byte, MessageHandler> handlers = new ConcurrentHashMap<>();
+  private final List<InetSocketAddress> peers;
+  private final SocketAddress bindAddress;
+  private final SecretKeySpec secret;
+  private final long nodeId;
+
+  private final BlockingQueue<byte[]> sendQueue = new ArrayBlockingQueue<>(SEND_QUEUE_CAPACITY);
+
+  private DatagramSocket socket;
+  private Thread receiver;
+  private Thread sender;
+
+  // Messages with this node's id are ignored, so every proxy in the cluster must have its own.
+  public ClusterNode(long nodeId, SocketAddress bindAddress, List<InetSocketAddress> peers, String secret) {
+    if (secret.isEmpty()) {
+      throw new IllegalArgumentException("The cluster secret must be set");
+    }
+
+    this.nodeId = nodeId;
+    this.bindAddress = bindAddress;
+    this.peers = List.copyOf(peers);
+    this.secret = new SecretKeySpec(secret.getBytes(StandardCharsets.UTF_8), "HmacSHA256");
+  }
+
+  // An empty name gives a random id, so the node is seen as a new one after every restart.
+  public static long getNodeId(String name) {
+    if (name.isEmpty()) {
+      return new SecureRandom().nextLong();
+    }
+
+    try {
+      return ByteBuffer.wrap(MessageDigest.getInstance("SHA-256").digest(name.getBytes(StandardCharsets.UTF_8))).getLong();
+    } catch (NoSuchAlgorithmException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+
+  public static List<InetSocketAddress> parsePeers(List<String> peers) {
+    List<InetSocketAddress> addresses = new ArrayList<>(peers.size());
+    for (String peer : peers) {
+      int separator = peer.lastIndexOf(':');
+      if (separator == -1) {
+        LimboFilter.getLogger().warn("Skipping cluster peer {}, expected host:port", peer);
+        continue;
+      }
+
+      String host = peer.substring(0, separator);
+      if (host.startsWith("[") && host.endsWith("]")) {
+        host = host.substring(1, host.length() - 1);
+      }
+
+      InetSocketAddress address = new InetSocketAddress(host, Integer.parseInt(peer.substring(separator + 1)));
+      if (address.isUnresolved()) {
+        LimboFilter.getLogger().warn("Skipping cluster peer {}, unable to resolve the host", peer);
+      } else {
+        addresses.add(address);
+      }
+    }
+
+    return addresses;
+  }
+
+  public void register(byte type, MessageHandler handler) {
+    this.handlers.put(type, handler);
+  }
+
+  public void unregister(byte type) {
+    this.handlers.remove(type);
+  }
+
+  public synchronized void start() throws SocketException {
+    this.socket = new DatagramSocket(this.bindAddress);
+
+    DatagramSocket socket = this.socket;
+    this.receiver = new Thread(() -> this.receive(socket), "LimboFilter Cluster");
+    this.receiver.setDaemon(true);
+    this.receiver.start();
+
+    this.sender = new Thread(() -> this.send(socket), "LimboFilter Cluster Sender");
+    this.sender.setDaemon(true);
+    this.sender.start();
+  }
+
+  // The message is dropped if the sender thread falls too far behind, the same way a lost datagram would be.
+  public void broadcast(byte type, ByteBuffer payload) {
+    if (this.peers.isEmpty()) {
+      return;
+    }
+
+    if (payload.remaining() > MAX_PAYLOAD) {
+      throw new IllegalArgumentException("Cluster message is too big: " + payload.remaining());
+    }
+
+    byte[] message = new byte[1 + payload.remaining()];
+    message[0] = type;
+    payload.get(message, 1, message.length - 1);
+    this.sendQueue.offer(message);
+  }
+
+  public int getPeerCount() {
+    return this.peers.size();
+  }
+
+  // Waits for the threads to stop, the port is only released once nothing is blocked on the socket.
+  public synchronized void close() {
+    if (this.socket == null) {
+      return;
+    }
+
+    this.socket.close();
+    this.socket = null;
+    this.sender.interrupt();
+    try {
+      this.receiver.join(CLOSE_TIMEOUT_MILLIS);
+      this.sender.join(CLOSE_TIMEOUT_MILLIS);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+
+    this.receiver = null;
+    this.sender = null;
+  }
+
+  private void send(DatagramSocket socket) {
+    Mac mac = this.createMac();
+    // Starts from the clock, so the sequence keeps growing across restarts of a node with the same id.
+    long sequence = System.currentTimeMillis() * 1000;
+    ByteBuffer buffer = ByteBuffer.allocate(HEADER_SIZE + MAX_PAYLOAD + MAC_SIZE);
+    while (!socket.isClosed()) {
+      byte[] message;
+      try {
+        message = this.sendQueue.take();
+      } catch (InterruptedException e) {
+        break;
+      }
+
+      buffer.clear();
+      buffer.putShort(MAGIC).put(message[0]).putLong(this.nodeId).putLong(System.currentTimeMillis()).putLong(++sequence).put(message, 1, message.length - 1);
+      mac.update(buffer.array(), 0, buffer.position());
+      buffer.put(mac.doFinal(), 0, MAC_SIZE);
+
+      for (InetSocketAddress peer : this.peers) {
+        try {
+          socket.send(new DatagramPacket(buffer.array(), buffer.position(), peer));
+        } catch (IOException e) {
+          if (socket.isClosed()) {
+            return;
+          }
+
+          LimboFilter.getLogger().debug("Failed to send a cluster message to {}", peer, e);
+        }
+      }
+    }
+  }
+
+  private void receive(DatagramSocket socket) {
+    Mac mac = this.createMac();
+    byte[] buffer = new byte[HEADER_SIZE + MAX_PAYLOAD + MAC_SIZE];
+    byte[] expectedMac = new byte[32];
+    DatagramPacket packet = new DatagramPacket(buffer, buffer.length);
+    Map<Long, ReplayWindow> replayWindows = new HashMap<>();
+    long nextReplayWindowsCleanup = System.currentTimeMillis() + REPLAY_WINDOW_TTL_MILLIS;
+    while (!socket.isClosed()) {
+      try {
+        packet.setLength(buffer.length);
+        socket.receive(packet);
+      } catch (IOException e) {
+        if (!socket.isClosed()) {
+          LimboFilter.getLogger().error("Failed to receive a cluster message", e);
+        }
+
+        continue;
+      }
+
+      int length = packet.getLength();
+      if (length < HEADER_SIZE + MAC_SIZE) {
+        continue;
+      }
+
+      int macOffset = length - MAC_SIZE;
+      mac.update(buffer, 0, macOffset);
+      try {
+        mac.doFinal(expectedMac, 0);
+      } catch (GeneralSecurityException e) {
+        throw new IllegalStateException(e);
+      }
+
+      int difference = 0;
+      for (int i = 0; i < MAC_SIZE; ++i) {
+        difference |= expectedMac[i] ^ buffer[macOffset + i];
+      }
+
+      ByteBuffer message = ByteBuffer.wrap(buffer, 0, macOffset);
+      if (difference != 0 || message.getShort() != MAGIC) {
+        continue;
+      }
+
+      MessageHandler handler = this.handlers.get(message.get());
+      long nodeId = message.getLong();
+      long timestamp = message.getLong();
+      long sequence = message.getLong();
+      long currentTime = System.currentTimeMillis();
+      if (handler == null || nodeId == this.nodeId || Math.abs(currentTime - timestamp) > MAX_CLOCK_SKEW_MILLIS) {
+        continue;
+      }
+
+      if (currentTime >= nextReplayWindowsCleanup) {
+        replayWindows.values().removeIf(window -> window.lastAccepted + REPLAY_WINDOW_TTL_MILLIS < currentTime);
+        nextReplayWindowsCleanup = currentTime + REPLAY_WINDOW_TTL_MILLIS;
+      }
+
+      ReplayWindow replayWindow = replayWindows.get(nodeId);
+      if (replayWindow == null) {
+        replayWindows.put(nodeId, new ReplayWindow(sequence, currentTime));
+      } else if (!replayWindow.accept(sequence, currentTime)) {
+        continue;
+      }
+
+      try {
+        handler.handle(nodeId, message.slice());
+      } catch (RuntimeException e) {
+        LimboFilter.getLogger().warn("Failed to handle a cluster message from {}", packet.getSocketAddress(), e);
+      }
+    }
+  }
+
+  private Mac createMac() {
+    try {
+      Mac mac = Mac.getInstance("HmacSHA256");
+      mac.init(this.secret);
+      return mac;
+    } catch (GeneralSecurityException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+
+  // Remembers which of the last REPLAY_WINDOW sequences of a node were already received.
+  private static class ReplayWindow {
+
+    private long highest;
+    private long received = 1;
+    private long lastAccepted;
+
+    private ReplayWindow(long sequence, long currentTime) {
+      this.highest = sequence;
+      this.lastAccepted = currentTime;
+    }
+
+    private boolean accept(long sequence, long currentTime) {
+      if (sequence > this.highest) {
+        long shift = sequence - this.highest;
+        this.received = shift >= REPLAY_WINDOW ? 1 : (this.received << shift) | 1;
+        this.highest = sequence;
+      } else {
+        long offset = this.highest - sequence;
+        if (offset >= REPLAY_WINDOW || (this.received & (1L << offset)) != 0) {
+          return false;
+        }
+
+        this.received |= 1L << offset;
+      }
+
+      this.lastAccepted = currentTime;
+      return true;
+    }
+  }
+
+  // The payload is only valid during the call.
+  public interface MessageHandler {
+
+    void handle(long nodeId, ByteBuffer payload);
+  }
+}
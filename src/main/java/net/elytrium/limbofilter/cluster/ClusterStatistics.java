@@ -0,0 +1,118 @@
+/*
+ * Copyright (C) 2021 - 2025 Elytrium
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.elytrium.limbofilter.cluster;
+
+import java.nio.ByteBuffer;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import net.elytrium.limbofilter.stats.WindowedCounters;
+
+// Sums the windowed connection and ping counters of the other proxies, so auto-toggle sees the whole attack.
+// Proxies are told apart by their node id, which stays the same across restarts, so a restarted proxy replaces its old counters.
+// Counters are rescaled to the local unit of time in case it differs between the proxies.
+public class ClusterStatistics {
+
+  private final Map<Long, Counters> nodes = new ConcurrentHashMap<>();
+  private final WindowedCounters local;
+  private final ClusterNode node;
+  private final long staleMillis;
+
+  private volatile long connections;
+  private volatile long pings;
+
+  public ClusterStatistics(WindowedCounters local, ClusterNode node, long intervalMillis) {
+    this.local = local;
+    this.node = node;
+    // A few lost datagrams in a row shouldn't drop the proxy from the sum.
+    this.staleMillis = intervalMillis * 4;
+
+    node.register(ClusterNode.STATISTICS, this::onCounters);
+  }
+
+  public void broadcast() {
+    ByteBuffer payload = ByteBuffer.allocate(24);
+    payload.putInt(this.local.getConnectionsWindowSeconds()).putLong(this.local.getConnections());
+    payload.putInt(this.local.getPingsWindowSeconds()).putLong(this.local.getPings());
+    this.node.broadcast(ClusterNode.STATISTICS, payload.flip());
+
+    this.recalculate(System.currentTimeMillis());
+  }
+
+  // Without the local counters.
+  public long getConnections() {
+    return this.connections;
+  }
+
+  public long getPings() {
+    return this.pings;
+  }
+
+  public int getNodeCount() {
+    return this.nodes.size();
+  }
+
+  public void close() {
+    this.node.unregister(ClusterNode.STATISTICS);
+  }
+
+  private void onCounters(long nodeId, ByteBuffer payload) {
+    long connections = rescale(payload.getLong(4), payload.getInt(0), this.local.getConnectionsWindowSeconds());
+    long pings = rescale(payload.getLong(16), payload.getInt(12), this.local.getPingsWindowSeconds());
+    long currentTime = System.currentTimeMillis();
+    this.nodes.put(nodeId, new Counters(connections, pings, currentTime));
+    this.recalculate(currentTime);
+  }
+
+  private void recalculate(long currentTime) {
+    long connections = 0;
+    long pings = 0;
+    for (Map.Entry<Long, Counters> entry : this.nodes.entrySet()) {
+      Counters counters = entry.getValue();
+      if (counters.receivedAt + this.staleMillis < currentTime) {
+        this.nodes.remove(entry.getKey(), counters);
+      } else {
+        connections += counters.connections;
+        pings += counters.pings;
+      }
+    }
+
+    this.connections = connections;
+    this.pings = pings;
+  }
+
+  private static long rescale(long count, int windowSeconds, int localWindowSeconds) {
+    if (windowSeconds <= 0 || windowSeconds == localWindowSeconds) {
+      return count;
+    }
+
+    return count * Math.max(localWindowSeconds, 1) / windowSeconds;
+  }
+
+  private static class Counters {
+
+    private final long connections;
+    private final long pings;
+    private final long receivedAt;
+
+    private Counters(long connections, long pings, long receivedAt) {
+      this.connections = connections;
+      this.pings = pings;
+      this.receivedAt = receivedAt;
+    }
+  }
+}
@@ -0,0 +1,92 @@
+/*
+ * Copyright (C) 2021 - 2025 Elytrium
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.elytrium.limbofilter.cluster;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import net.elytrium.limbofilter.cache.VerifiedPlayerBackend;
+
+// Applies the changes locally and sends them to the other proxies, so a player is verified only once per cluster.
+// Datagrams may be lost, in that case the player is just checked once more on the proxy that missed it.
+public class ClusterVerifiedPlayerBackend implements VerifiedPlayerBackend {
+
+  private final VerifiedPlayerBackend local;
+  private final ClusterNode node;
+
+  public ClusterVerifiedPlayerBackend(VerifiedPlayerBackend local, ClusterNode node) {
+    this.local = local;
+    this.node = node;
+
+    node.register(ClusterNode.VERIFIED_PLAYER_PUT, (nodeId, payload) -> this.onPut(payload));
+    node.register(ClusterNode.VERIFIED_PLAYER_REMOVE, (nodeId, payload) -> this.local.remove(readString(payload)));
+  }
+
+  @Override
+  public boolean isVerified(String username, InetAddress address) {
+    return this.local.isVerified(username, address);
+  }
+
+  @Override
+  public void put(String username, InetAddress address, long expiry) {
+    this.local.put(username, address, expiry);
+
+    byte[] name = username.getBytes(StandardCharsets.UTF_8);
+    byte[] addressBytes = address.getAddress();
+    ByteBuffer payload = ByteBuffer.allocate(1 + name.length + 1 + addressBytes.length + 8);
+    payload.put((byte) name.length).put(name).put((byte) addressBytes.length).put(addressBytes).putLong(expiry).flip();
+    this.node.broadcast(ClusterNode.VERIFIED_PLAYER_PUT, payload);
+  }
+
+  @Override
+  public void remove(String username) {
+    this.local.remove(username);
+
+    byte[] name = username.getBytes(StandardCharsets.UTF_8);
+    this.node.broadcast(ClusterNode.VERIFIED_PLAYER_REMOVE, ByteBuffer.allocate(1 + name.length).put((byte) name.length).put(name).flip());
+  }
+
+  @Override
+  public void close() {
+    this.node.unregister(ClusterNode.VERIFIED_PLAYER_PUT);
+    this.node.unregister(ClusterNode.VERIFIED_PLAYER_REMOVE);
+  }
+
+  private void onPut(ByteBuffer payload) {
+    String username = readString(payload);
+    byte[] addressBytes = new byte[payload.get() & 0xFF];
+    payload.get(addressBytes);
+    long expiry = payload.getLong();
+    if (expiry <= System.currentTimeMillis()) {
+      return;
+    }
+
+    try {
+      this.local.put(username, InetAddress.getByAddress(addressBytes), expiry);
+    } catch (UnknownHostException e) {
+      throw new IllegalArgumentException(e);
+    }
+  }
+
+  private static String readString(ByteBuffer payload) {
+    byte[] bytes = new byte[payload.get() & 0xFF];
+    payload.get(bytes);
+    return new String(bytes, StandardCharsets.UTF_8);
+  }
+}
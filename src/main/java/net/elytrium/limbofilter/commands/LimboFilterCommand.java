@@ -23,6 +23,7 @@ import com.velocitypowered.api.command.SimpleCommand;
 import com.velocitypowered.api.proxy.Player;
 import com.velocitypowered.api.proxy.ProxyServer;
 import com.velocitypowered.api.scheduler.ScheduledTask;
+import java.io.IOException;
 import java.net.InetAddress;
 import java.text.MessageFormat;
 import java.util.ArrayList;
@@ -53,11 +54,14 @@ public class LimboFilterCommand implements SimpleCommand {
   private static final Component AVAILABLE_SUBCOMMANDS_MESSAGE = Component.text("Available subcommands:", NamedTextColor.WHITE);
   private static final Component NO_AVAILABLE_SUBCOMMANDS_MESSAGE = Component.text("There is no available subcommands for you.", NamedTextColor.WHITE);
 
+  private static final String DEFAULT_VERIFIED_PLAYERS_FILE = "verified-players.bin";
+
   private static ScheduledTask STATS_TASK;
 
   private final LimboFilter plugin;
 
   private final Component reloadComponent;
+  private final Component reloadFailedComponent;
   private final Component statsEnabledComponent;
   private final Component statsDisabledComponent;
 
@@ -77,6 +81,7 @@ public class LimboFilterCommand implements SimpleCommand {
 
     Serializer serializer = LimboFilter.getSerializer();
     this.reloadComponent = serializer.deserialize(Settings.IMP.MAIN.STRINGS.RELOAD);
+    this.reloadFailedComponent = serializer.deserialize(Settings.IMP.MAIN.STRINGS.RELOAD_FAILED);
     this.statsEnabledComponent = serializer.deserialize(Settings.IMP.MAIN.STRINGS.STATS_ENABLED);
     this.statsDisabledComponent = serializer.deserialize(Settings.IMP.MAIN.STRINGS.STATS_DISABLED);
   }
@@ -162,11 +167,33 @@ public class LimboFilterCommand implements SimpleCommand {
     );
   }
 
+  private void transferVerifiedPlayers(CommandSource source, String[] args, boolean export) {
+    String fileName = args.length > 1 ? args[1] : DEFAULT_VERIFIED_PLAYERS_FILE;
+    Serializer serializer = LimboFilter.getSerializer();
+    this.plugin.getServer().getScheduler().buildTask(this.plugin, () -> {
+      long startTime = System.currentTimeMillis();
+      try {
+        int count = export ? this.plugin.exportVerifiedPlayers(fileName) : this.plugin.importVerifiedPlayers(fileName);
+        String message = export ? Settings.IMP.MAIN.STRINGS.VERIFIED_PLAYERS_EXPORTED : Settings.IMP.MAIN.STRINGS.VERIFIED_PLAYERS_IMPORTED;
+        source.sendMessage(serializer.deserialize(MessageFormat.format(message, count, fileName, System.currentTimeMillis() - startTime)));
+      } catch (IOException | RuntimeException e) {
+        LimboFilter.getLogger().error("Failed to transfer verified players", e);
+        source.sendMessage(serializer.deserialize(MessageFormat.format(Settings.IMP.MAIN.STRINGS.VERIFIED_PLAYERS_TRANSFER_FAILED, e.getMessage())));
+      }
+    }).schedule();
+  }
+
   private enum Subcommand {
     RELOAD("Reload config.", Settings.IMP.MAIN.COMMAND_PERMISSION_STATE.RELOAD,
         (LimboFilterCommand parent, CommandSource source, String[] args) -> {
-          parent.plugin.reload();
-          source.sendMessage(parent.reloadComponent);
+          parent.plugin.reload().whenComplete((result, throwable) -> {
+            if (throwable == null) {
+              source.sendMessage(parent.reloadComponent);
+            } else {
+              LimboFilter.getLogger().error("Failed to reload", throwable);
+              source.sendMessage(parent.reloadFailedComponent);
+            }
+          });
         }),
     STATS("Enable/Disable statistics of connections and blocked bots.", Settings.IMP.MAIN.COMMAND_PERMISSION_STATE.STATS,
         (LimboFilterCommand parent, CommandSource source, String[] args) -> {
@@ -183,7 +210,12 @@ public class LimboFilterCommand implements SimpleCommand {
           } else {
             source.sendMessage(parent.createStatsComponent(null, -1));
           }
-        });
+        }),
+    EXPORT("Save verified players to a file for the import command, verified-players.bin by default.",
+        Settings.IMP.MAIN.COMMAND_PERMISSION_STATE.EXPORT,
+        (LimboFilterCommand parent, CommandSource source, String[] args) -> parent.transferVerifiedPlayers(source, args, true)),
+    IMPORT("Load verified players from a file made by the export command.", Settings.IMP.MAIN.COMMAND_PERMISSION_STATE.IMPORT,
+        (LimboFilterCommand parent, CommandSource source, String[] args) -> parent.transferVerifiedPlayers(source, args, false));
 
     private final String command;
     private final String description;
@@ -22,9 +22,6 @@ import com.velocitypowered.api.proxy.Player;
 import com.velocitypowered.proxy.protocol.packet.ClientSettingsPacket;
 import com.velocitypowered.proxy.protocol.packet.PluginMessagePacket;
 import com.velocitypowered.proxy.protocol.util.PluginMessageUtil;
-import java.util.HashMap;
-import java.util.Map;
-import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.TimeUnit;
 import net.elytrium.limboapi.api.Limbo;
 import net.elytrium.limboapi.api.LimboSessionHandler;
@@ -33,57 +30,61 @@ import net.elytrium.limboapi.api.protocol.PreparedPacket;
 import net.elytrium.limbofilter.LimboFilter;
 import net.elytrium.limbofilter.Settings;
 import net.elytrium.limbofilter.captcha.CaptchaHolder;
+import net.elytrium.limbofilter.listener.PingSource;
+import net.elytrium.limbofilter.listener.TcpInfoProbe;
 import net.elytrium.limbofilter.listener.TcpListener;
 import net.elytrium.limbofilter.protocol.data.EntityMetadata;
 import net.elytrium.limbofilter.protocol.data.ItemFrame;
 import net.elytrium.limbofilter.protocol.packets.Interact;
 import net.elytrium.limbofilter.protocol.packets.SetEntityMetadata;
-import net.elytrium.limbofilter.stats.Statistics;
+import net.elytrium.limbofilter.stats.PingTable;
 
 public class BotFilterSessionHandler implements LimboSessionHandler {
 
-  private static final double[] LOADED_CHUNK_SPEED_CACHE = new double[Settings.IMP.MAIN.FALLING_CHECK_TICKS];
+  private static final int STARTED_LISTENING = 1;
+  private static final int ON_GROUND = 1 << 1;
+  private static final int CHECKED_BY_SETTINGS = 1 << 2;
+  private static final int CHECKED_BY_BRAND = 1 << 3;
+
+  private static FallingCheckTrajectory FALLING_CHECK_TRAJECTORY;
   private static long FALLING_CHECK_TOTAL_TIME;
 
-  private final Map<Integer, Integer> frameRotation = new HashMap<>();
   private final Player proxyPlayer;
   private final ProtocolVersion version;
   private final LimboFilter plugin;
-  private final Statistics statistics;
+  private final FallingCheckTrajectory trajectory;
   private final int validX;
   private final int validY;
   private final int validZ;
   private final int validTeleportId;
 
-  private double posX;
   private double posY;
   private double lastY;
-  private double posZ;
   private int waitingTeleportId;
-  private boolean onGround;
+  private int flags;
 
   private int ticks = 1;
   private int ignoredTicks;
+  private int lastExperienceTick;
+  private int skippedExperienceFlushes;
 
   private long joinTime;
-  private ScheduledFuture<?> filterMainTask;
+  private TimeoutWheel.Timeout filterMainTask;
 
   private CheckState state;
   private LimboPlayer player;
   private Limbo server;
   private String captchaAnswer;
+  private int[] frameRotation;
   private int attempts = Settings.IMP.MAIN.CAPTCHA_ATTEMPTS;
   private int nonValidPacketsSize;
-  private boolean startedListening;
-  private boolean checkedBySettings;
-  private boolean checkedByBrand;
 
   public BotFilterSessionHandler(Player proxyPlayer, LimboFilter plugin) {
     this.proxyPlayer = proxyPlayer;
     this.version = this.proxyPlayer.getProtocolVersion();
     this.plugin = plugin;
 
-    this.statistics = this.plugin.getStatistics();
+    this.trajectory = FALLING_CHECK_TRAJECTORY;
 
     Settings.MAIN.FALLING_COORDS fallingCoords = Settings.IMP.MAIN.FALLING_COORDS;
     this.validX = fallingCoords.X;
@@ -91,9 +92,7 @@ public class BotFilterSessionHandler implements LimboSessionHandler {
     this.validZ = fallingCoords.Z;
     this.validTeleportId = fallingCoords.TELEPORT_ID;
 
-    this.posX = this.validX;
     this.posY = this.validY;
-    this.posZ = this.validZ;
 
     if (proxyPlayer.getRemoteAddress().getPort() == 0) {
       this.state = plugin.checkCpsLimit(Settings.IMP.MAIN.FILTER_AUTO_TOGGLE.CHECK_STATE_TOGGLE)
@@ -125,7 +124,7 @@ public class BotFilterSessionHandler implements LimboSessionHandler {
 
     this.player.flushPackets();
 
-    this.filterMainTask = player.getScheduledExecutor().schedule(() ->
+    this.filterMainTask = TimeoutWheel.get(player.getScheduledExecutor()).schedule(() ->
         this.disconnect(this.plugin.getPackets().getTimesUp(), true), this.getTimeout(), TimeUnit.MILLISECONDS);
   }
 
@@ -142,44 +141,47 @@ public class BotFilterSessionHandler implements LimboSessionHandler {
     if (this.version.compareTo(ProtocolVersion.MINECRAFT_1_8) <= 0
         && x == this.validX && y == this.validY && z == this.validZ && this.waitingTeleportId == this.validTeleportId) {
       this.ticks = 1;
+      this.lastExperienceTick = 0;
       this.posY = -1;
       this.waitingTeleportId = -1;
     }
 
-    this.posX = x;
     this.lastY = this.posY;
     this.posY = y;
-    this.posZ = z;
 
     if (Settings.IMP.MAIN.FALLING_CHECK_DEBUG) {
-      this.logPosition();
+      this.logPosition(x, z);
     }
-    if (!this.startedListening && this.state != CheckState.ONLY_CAPTCHA) {
-      if (this.posX == this.validX && this.posZ == this.validZ) {
-        this.startedListening = true;
+    if (!this.hasFlag(STARTED_LISTENING) && this.state != CheckState.ONLY_CAPTCHA) {
+      if (x == this.validX && z == this.validZ) {
+        this.setFlag(STARTED_LISTENING, true);
 
         if (this.state == CheckState.CAPTCHA_POSITION && !Settings.IMP.MAIN.FRAMED_CAPTCHA.FRAMED_CAPTCHA_ENABLED) {
           this.sendCaptcha();
         }
       }
       if (this.nonValidPacketsSize > Settings.IMP.MAIN.NON_VALID_POSITION_XZ_ATTEMPTS) {
-        this.fallingCheckFailed("A lot of non-valid XZ attempts");
+        this.fallingCheckFailed("A lot of non-valid XZ attempts", x, z);
         return;
       }
 
       this.lastY = this.validY;
       ++this.nonValidPacketsSize;
     }
-    if (this.startedListening && this.state != CheckState.SUCCESSFUL && this.state != CheckState.ONLY_CAPTCHA && !this.onGround) {
+    if (this.hasFlag(STARTED_LISTENING) && this.state != CheckState.SUCCESSFUL && this.state != CheckState.ONLY_CAPTCHA && !this.hasFlag(ON_GROUND)) {
       if (this.lastY - this.posY == 0) {
         ++this.ignoredTicks;
         return;
       }
       if (this.ignoredTicks > Settings.IMP.MAIN.NON_VALID_POSITION_Y_ATTEMPTS) {
-        this.fallingCheckFailed("A lot of non-valid Y attempts");
+        this.fallingCheckFailed("A lot of non-valid Y attempts", x, z);
         return;
       }
       if (this.ticks >= Settings.IMP.MAIN.FALLING_CHECK_TICKS) {
+        if (Settings.IMP.MAIN.FALLING_CHECK_DEBUG) {
+          LimboFilter.getLogger().info("{} finished falling check, {} progress bar flushes saved", this.proxyPlayer, this.skippedExperienceFlushes);
+        }
+
         if (this.state == CheckState.CAPTCHA_POSITION) {
           this.changeStateToCaptcha();
         } else {
@@ -188,22 +190,34 @@ public class BotFilterSessionHandler implements LimboSessionHandler {
         return;
       }
       if (this.checkY()) {
-        this.fallingCheckFailed("Non-valid X, Z or Velocity");
+        this.fallingCheckFailed("Non-valid X, Z or Velocity", x, z);
         return;
       }
-      PreparedPacket experience = this.plugin.getPackets().getExperience(this.ticks);
-      if (experience != null) {
-        this.player.writePacketAndFlush(experience);
-      }
+      this.updateExperience();
 
       ++this.ticks;
     }
   }
 
-  private void fallingCheckFailed(String reason) {
+  private void updateExperience() {
+    PreparedPacket experience = this.plugin.getPackets().getExperience(this.ticks);
+    if (experience == null) {
+      return;
+    }
+
+    if (this.ticks - this.lastExperienceTick < Settings.IMP.MAIN.FALLING_CHECK_PROGRESS_UPDATE_RATE) {
+      ++this.skippedExperienceFlushes;
+      return;
+    }
+
+    this.player.writePacketAndFlush(experience);
+    this.lastExperienceTick = this.ticks;
+  }
+
+  private void fallingCheckFailed(String reason, double x, double z) {
     if (Settings.IMP.MAIN.FALLING_CHECK_DEBUG) {
       LimboFilter.getLogger().info(reason);
-      this.logPosition();
+      this.logPosition(x, z);
     }
 
     if (this.state == CheckState.CAPTCHA_ON_POSITION_FAILED) {
@@ -214,34 +228,36 @@ public class BotFilterSessionHandler implements LimboSessionHandler {
     }
   }
 
-  private void logPosition() {
+  private void logPosition(double x, double z) {
+    double expectedY = this.trajectory.getExpectedY(this.validY, this.ticks);
     LimboFilter.getLogger().info(
-        "lastY=" + this.lastY + "; y=" + this.posY + "; delta=" + (this.lastY - this.posY) + "; need=" + getLoadedChunkSpeed(this.ticks)
-            + "; x=" + this.posX + "; z=" + this.posZ + "; validX=" + this.validX + "; validY=" + this.validY + "; validZ=" + this.validZ
-            + "; ticks=" + this.ticks + "; ignoredTicks=" + this.ignoredTicks + "; state=" + this.state
-            + "; diff=" + (this.lastY - this.posY - getLoadedChunkSpeed(this.ticks))
+        "lastY={}; y={}; need={}; diff={}; x={}; z={}; validX={}; validY={}; validZ={}; ticks={}; ignoredTicks={}; state={}",
+        this.lastY, this.posY, expectedY, this.posY - expectedY, x, z, this.validX, this.validY, this.validZ,
+        this.ticks, this.ignoredTicks, this.state
     );
   }
 
   private boolean checkY() {
-    while (this.ticks < LOADED_CHUNK_SPEED_CACHE.length
-        && Math.abs(this.lastY - this.posY - getLoadedChunkSpeed(this.ticks)) > Settings.IMP.MAIN.MAX_VALID_POSITION_DIFFERENCE) {
-      ++this.ticks;
-      ++this.ignoredTicks;
+    int tick = this.trajectory.findTick(this.validY, this.posY, this.ticks);
+    if (tick == -1) {
+      return true;
     }
 
-    return this.ticks >= LOADED_CHUNK_SPEED_CACHE.length;
+    this.ignoredTicks += tick - this.ticks;
+    this.ticks = tick;
+    return false;
   }
 
   @Override
   public void onGround(boolean onGround) {
-    this.onGround = onGround;
+    this.setFlag(ON_GROUND, onGround);
   }
 
   @Override
   public void onTeleport(int teleportId) {
     if (teleportId == this.waitingTeleportId) {
       this.ticks = 1;
+      this.lastExperienceTick = 0;
       this.posY = -1;
       this.lastY = -1;
       this.waitingTeleportId = -1;
@@ -274,30 +290,49 @@ public class BotFilterSessionHandler implements LimboSessionHandler {
   public void onGeneric(Object packet) {
     if (packet instanceof PluginMessagePacket) {
       PluginMessagePacket pluginMessage = (PluginMessagePacket) packet;
-      if (PluginMessageUtil.isMcBrand(pluginMessage) && !this.checkedByBrand) {
+      if (PluginMessageUtil.isMcBrand(pluginMessage) && !this.hasFlag(CHECKED_BY_BRAND)) {
         String brand = PluginMessageUtil.readBrandMessage(pluginMessage.content());
         LimboFilter.getLogger().info("{} has client brand {}", this.proxyPlayer, brand);
         if (!Settings.IMP.MAIN.BLOCKED_CLIENT_BRANDS.contains(brand)) {
-          this.checkedByBrand = true;
+          this.setFlag(CHECKED_BY_BRAND, true);
         }
       }
     } else if (packet instanceof ClientSettingsPacket) {
-      if (Settings.IMP.MAIN.CHECK_CLIENT_SETTINGS && !this.checkedBySettings) {
-        this.checkedBySettings = true;
+      if (Settings.IMP.MAIN.CHECK_CLIENT_SETTINGS) {
+        this.setFlag(CHECKED_BY_SETTINGS, true);
       }
     } else if (packet instanceof Interact) {
       Interact interact = (Interact) packet;
       if (interact.getType() == 0 || interact.getType() == 1) {
-        int rotation = this.frameRotation.compute(interact.getEntityId(), (k, v) -> (v != null ? v : 0) + 1);
-        EntityMetadata metadata = ItemFrame.createRotationMetadata(this.version, rotation);
-        this.player.writePacketAndFlush(new SetEntityMetadata(interact.getEntityId(), metadata));
+        this.rotateFrame(interact.getEntityId());
       }
     }
   }
 
+  private void rotateFrame(int entityId) {
+    Settings.MAIN.FRAMED_CAPTCHA settings = Settings.IMP.MAIN.FRAMED_CAPTCHA;
+    if (!settings.FRAMED_CAPTCHA_ENABLED) {
+      return;
+    }
+
+    // The size of the frame the session was shown is fixed on the first click, a reload may change the config afterwards.
+    int frame = entityId - ItemFrame.FIRST_ENTITY_ID;
+    int frames = this.frameRotation == null ? settings.WIDTH * settings.HEIGHT : this.frameRotation.length;
+    if (frame < 0 || frame >= frames) {
+      return;
+    }
+
+    if (this.frameRotation == null) {
+      this.frameRotation = new int[frames];
+    }
+
+    EntityMetadata metadata = ItemFrame.createRotationMetadata(this.version, ++this.frameRotation[frame]);
+    this.player.writePacketAndFlush(new SetEntityMetadata(entityId, metadata));
+  }
+
   @Override
   public void onDisconnect() {
-    this.filterMainTask.cancel(true);
+    this.filterMainTask.cancel();
 
     TcpListener tcpListener = this.plugin.getTcpListener();
     if (tcpListener != null) {
@@ -319,12 +354,12 @@ public class BotFilterSessionHandler implements LimboSessionHandler {
       return;
     }
 
-    if (Settings.IMP.MAIN.CHECK_CLIENT_SETTINGS && !this.checkedBySettings) {
+    if (Settings.IMP.MAIN.CHECK_CLIENT_SETTINGS && !this.hasFlag(CHECKED_BY_SETTINGS)) {
       this.disconnect(this.plugin.getPackets().getKickClientCheckSettings(), true);
       return;
     }
 
-    if (Settings.IMP.MAIN.CHECK_CLIENT_BRAND && !this.checkedByBrand) {
+    if (Settings.IMP.MAIN.CHECK_CLIENT_BRAND && !this.hasFlag(CHECKED_BY_BRAND)) {
       this.disconnect(this.plugin.getPackets().getKickClientCheckBrand(), true);
       return;
     }
@@ -346,25 +381,41 @@ public class BotFilterSessionHandler implements LimboSessionHandler {
 
   private boolean checkPing() {
     int l7Ping = this.player.getPing();
-    int l4Ping = this.statistics.getPing(this.proxyPlayer.getRemoteAddress().getAddress());
+    long l4PingState;
+    if (Settings.IMP.MAIN.TCP_LISTENER.PING_SOURCE == PingSource.TCP_INFO) {
+      l4PingState = TcpInfoProbe.getPingState(this.proxyPlayer);
+      if (l4PingState == PingTable.UNKNOWN) {
+        return false;
+      }
+    } else {
+      l4PingState = this.plugin.getStatistics().getPingState(this.proxyPlayer.getRemoteAddress().getAddress());
+    }
+
+    int l4Ping = PingTable.getSmoothedPing(l4PingState);
 
     if (Settings.IMP.MAIN.TCP_LISTENER.PROXY_DETECTOR_ENABLED && (l7Ping - l4Ping) > Settings.IMP.MAIN.TCP_LISTENER.PROXY_DETECTOR_DIFFERENCE) {
       this.disconnect(this.plugin.getPackets().getKickProxyCheck(), true);
 
       if (Settings.IMP.MAIN.TCP_LISTENER.DEBUG_ON_FAIL) {
-        LimboFilter.getLogger().info("{} failed proxy check: L4 ping {}, L7 ping {}", this.proxyPlayer, l4Ping, l7Ping);
+        LimboFilter.getLogger().info("{} failed proxy check: L4 ping {} ({}), L7 ping {}", this.proxyPlayer, l4Ping, describePing(l4PingState), l7Ping);
       }
 
       return true;
     }
 
     if (Settings.IMP.MAIN.TCP_LISTENER.DEBUG_ON_SUCCESS) {
-      LimboFilter.getLogger().info("{} passed proxy check: L4 ping {}, L7 ping {}", this.proxyPlayer, l4Ping, l7Ping);
+      LimboFilter.getLogger().info("{} passed proxy check: L4 ping {} ({}), L7 ping {}", this.proxyPlayer, l4Ping, describePing(l4PingState), l7Ping);
     }
 
     return false;
   }
 
+  private static String describePing(long state) {
+    int minPing = PingTable.getMinPing(state);
+    String variation = "variation " + PingTable.getPingVariation(state);
+    return minPing == -1 ? "smoothed, " + variation : "min " + minPing + ", " + variation;
+  }
+
   private void changeStateToCaptcha() {
     if (this.state != CheckState.ONLY_CAPTCHA && this.version.noLessThan(ProtocolVersion.MINECRAFT_1_21_2)) {
       this.player.writePacket(this.plugin.getPackets().getFallingCheckChunkUnload());
@@ -408,7 +459,20 @@ public class BotFilterSessionHandler implements LimboSessionHandler {
   private void disconnect(PreparedPacket reason, boolean blocked) {
     this.player.closeWith(reason);
     if (blocked) {
-      this.statistics.addBlockedConnection();
+      this.plugin.getStatistics().addBlockedConnection();
+      this.plugin.getPreSpawnCheck().markBadAddress(this.proxyPlayer.getRemoteAddress().getAddress());
+    }
+  }
+
+  private boolean hasFlag(int flag) {
+    return (this.flags & flag) != 0;
+  }
+
+  private void setFlag(int flag, boolean value) {
+    if (value) {
+      this.flags |= flag;
+    } else {
+      this.flags &= ~flag;
     }
   }
 
@@ -420,18 +484,8 @@ public class BotFilterSessionHandler implements LimboSessionHandler {
     }
   }
 
-  static {
-    for (int i = 0; i < Settings.IMP.MAIN.FALLING_CHECK_TICKS; ++i) {
-      LOADED_CHUNK_SPEED_CACHE[i] = -((Math.pow(0.98, i) - 1) * 3.92);
-    }
-  }
-
-  public static double getLoadedChunkSpeed(int ticks) {
-    if (ticks == -1) {
-      return 0;
-    }
-
-    return LOADED_CHUNK_SPEED_CACHE[ticks];
+  public static void setFallingCheckTrajectory(FallingCheckTrajectory trajectory) {
+    FALLING_CHECK_TRAJECTORY = trajectory;
   }
 
   public static void setFallingCheckTotalTime(long time) {
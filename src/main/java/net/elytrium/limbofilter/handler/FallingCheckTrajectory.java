@@ -0,0 +1,101 @@
+/*
+ * Copyright (C) 2021 - 2025 Elytrium
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.elytrium.limbofilter.handler;
+
+public class FallingCheckTrajectory {
+
+  // Distances are stored in 1/4096 of a block.
+  private static final int FIXED_POINT_SHIFT = 12;
+  private static final double FIXED_POINT_SCALE = 1 << FIXED_POINT_SHIFT;
+  // 1/16 of a block, less than the smallest distance between two ticks (0.0784 blocks on the first tick),
+  // so a bucket spans no more than two tolerance windows.
+  private static final int BUCKET_SHIFT = 8;
+
+  private final int[] expectedFallen;
+  private final int[] bucketFirstTick;
+  private final int tolerance;
+
+  public FallingCheckTrajectory(int ticks, double maxDifference) {
+    this.expectedFallen = new int[Math.max(ticks, 1)];
+    this.tolerance = (int) Math.round(maxDifference * FIXED_POINT_SCALE);
+
+    double fallen = 0;
+    for (int tick = 1; tick < this.expectedFallen.length; ++tick) {
+      fallen += getLoadedChunkSpeed(tick);
+      this.expectedFallen[tick] = (int) Math.round(fallen * FIXED_POINT_SCALE);
+    }
+
+    int lastTick = this.expectedFallen.length - 1;
+    this.bucketFirstTick = new int[((this.expectedFallen[lastTick] + this.tolerance) >> BUCKET_SHIFT) + 1];
+    int tick = 0;
+    for (int bucket = 0; bucket < this.bucketFirstTick.length; ++bucket) {
+      int bucketStart = bucket << BUCKET_SHIFT;
+      while (tick < lastTick && this.expectedFallen[tick] + this.tolerance < bucketStart) {
+        ++tick;
+      }
+
+      this.bucketFirstTick[bucket] = tick;
+    }
+  }
+
+  // Tolerance windows of neighbouring ticks overlap, so the search starts at the tick the player is expected to have reached.
+  public int findTick(double startY, double y, int fromTick) {
+    long fallen = Math.round((startY - y) * FIXED_POINT_SCALE);
+    if (fallen < -this.tolerance) {
+      return -1;
+    }
+
+    long bucket = Math.max(fallen, 0) >> BUCKET_SHIFT;
+    if (bucket >= this.bucketFirstTick.length) {
+      return -1;
+    }
+
+    for (int tick = Math.max(this.bucketFirstTick[(int) bucket], fromTick); tick < this.expectedFallen.length; ++tick) {
+      int expected = this.expectedFallen[tick];
+      if (fallen < expected - this.tolerance) {
+        break;
+      }
+
+      if (fallen <= expected + this.tolerance) {
+        return tick;
+      }
+    }
+
+    return -1;
+  }
+
+  public double getExpectedY(double startY, int tick) {
+    if (tick < 0 || tick >= this.expectedFallen.length) {
+      return Double.NaN;
+    }
+
+    return startY - this.expectedFallen[tick] / FIXED_POINT_SCALE;
+  }
+
+  public int getTicks() {
+    return this.expectedFallen.length;
+  }
+
+  public static double getLoadedChunkSpeed(int ticks) {
+    if (ticks == -1) {
+      return 0;
+    }
+
+    return -((Math.pow(0.98, ticks) - 1) * 3.92);
+  }
+}
@@ -0,0 +1,159 @@
+/*
+ * Copyright (C) 2021 - 2025 Elytrium
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.elytrium.limbofilter.handler;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import net.elytrium.limbofilter.LimboFilter;
+
+public class TimeoutWheel {
+
+  private static final Map<ScheduledExecutorService, TimeoutWheel> WHEELS = new ConcurrentHashMap<>();
+
+  private static final long TICK_MILLIS = 100;
+  // 51.2 seconds per revolution, longer timeouts take more than one round.
+  private static final int WHEEL_SIZE = 512;
+  private static final int WHEEL_MASK = WHEEL_SIZE - 1;
+
+  private final Timeout[] buckets = new Timeout[WHEEL_SIZE];
+  private final ScheduledExecutorService executor;
+
+  private ScheduledFuture<?> ticker;
+  private int cursor;
+  private int size;
+
+  private TimeoutWheel(ScheduledExecutorService executor) {
+    this.executor = executor;
+  }
+
+  public static TimeoutWheel get(ScheduledExecutorService executor) {
+    return WHEELS.computeIfAbsent(executor, TimeoutWheel::new);
+  }
+
+  public Timeout schedule(Runnable task, long delay, TimeUnit unit) {
+    long ticks = Math.max(1, (unit.toMillis(delay) + TICK_MILLIS - 1) / TICK_MILLIS);
+    Timeout timeout = new Timeout(this, task);
+
+    synchronized (this) {
+      timeout.bucket = (int) ((this.cursor + ticks) & WHEEL_MASK);
+      timeout.rounds = (ticks - 1) / WHEEL_SIZE;
+      this.link(timeout);
+
+      if (this.ticker == null) {
+        this.ticker = this.executor.scheduleAtFixedRate(this::tick, TICK_MILLIS, TICK_MILLIS, TimeUnit.MILLISECONDS);
+      }
+    }
+
+    return timeout;
+  }
+
+  private void tick() {
+    Timeout expired = null;
+
+    synchronized (this) {
+      this.cursor = (this.cursor + 1) & WHEEL_MASK;
+
+      Timeout timeout = this.buckets[this.cursor];
+      while (timeout != null) {
+        Timeout next = timeout.next;
+        if (timeout.rounds == 0) {
+          this.unlink(timeout);
+          timeout.next = expired;
+          expired = timeout;
+        } else {
+          --timeout.rounds;
+        }
+
+        timeout = next;
+      }
+
+      if (this.size == 0) {
+        this.ticker.cancel(false);
+        this.ticker = null;
+      }
+    }
+
+    while (expired != null) {
+      Timeout next = expired.next;
+      expired.next = null;
+
+      try {
+        expired.task.run();
+      } catch (Throwable t) {
+        LimboFilter.getLogger().error("Failed to run the filter timeout task", t);
+      }
+
+      expired = next;
+    }
+  }
+
+  private void link(Timeout timeout) {
+    Timeout head = this.buckets[timeout.bucket];
+    timeout.next = head;
+    if (head != null) {
+      head.prev = timeout;
+    }
+
+    this.buckets[timeout.bucket] = timeout;
+    ++this.size;
+  }
+
+  private void unlink(Timeout timeout) {
+    if (timeout.prev != null) {
+      timeout.prev.next = timeout.next;
+    } else {
+      this.buckets[timeout.bucket] = timeout.next;
+    }
+
+    if (timeout.next != null) {
+      timeout.next.prev = timeout.prev;
+    }
+
+    timeout.prev = null;
+    timeout.next = null;
+    timeout.bucket = -1;
+    --this.size;
+  }
+
+  public static class Timeout {
+
+    private final TimeoutWheel wheel;
+    private final Runnable task;
+
+    private Timeout prev;
+    private Timeout next;
+    private int bucket;
+    private long rounds;
+
+    private Timeout(TimeoutWheel wheel, Runnable task) {
+      this.wheel = wheel;
+      this.task = task;
+    }
+
+    public void cancel() {
+      synchronized (this.wheel) {
+        if (this.bucket != -1) {
+          this.wheel.unlink(this);
+        }
+      }
+    }
+  }
+}
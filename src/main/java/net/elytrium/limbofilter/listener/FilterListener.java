@@ -24,26 +24,59 @@ import com.velocitypowered.api.event.connection.PreLoginEvent;
 import com.velocitypowered.api.event.proxy.ProxyPingEvent;
 import com.velocitypowered.api.event.query.ProxyQueryEvent;
 import com.velocitypowered.api.proxy.Player;
+import java.net.InetAddress;
 import java.net.InetSocketAddress;
+import net.elytrium.commons.kyori.serialization.Serializer;
 import net.elytrium.limboapi.api.event.LoginLimboRegisterEvent;
 import net.elytrium.limbofilter.LimboFilter;
 import net.elytrium.limbofilter.Settings;
+import net.elytrium.limbofilter.check.PreSpawnCheck;
+import net.elytrium.limbofilter.check.SubnetRateLimiter;
 import net.elytrium.limbofilter.stats.Statistics;
+import net.kyori.adventure.text.Component;
 
 public class FilterListener {
 
   private final LimboFilter plugin;
+  private final Component preSpawnCheckKick;
+  private final Component subnetRateLimitKick;
+  private final SubnetRateLimiter subnetRateLimiter;
 
   public FilterListener(LimboFilter plugin) {
     this.plugin = plugin;
+
+    Serializer serializer = LimboFilter.getSerializer();
+    this.preSpawnCheckKick = serializer.deserialize(Settings.IMP.MAIN.STRINGS.PRE_SPAWN_CHECK_KICK);
+    this.subnetRateLimitKick = serializer.deserialize(Settings.IMP.MAIN.STRINGS.SUBNET_RATE_LIMIT_KICK);
+
+    Settings.MAIN.SUBNET_RATE_LIMIT rateLimit = Settings.IMP.MAIN.SUBNET_RATE_LIMIT;
+    if (rateLimit.BURST == -1) {
+      this.subnetRateLimiter = null;
+    } else {
+      this.subnetRateLimiter = new SubnetRateLimiter(rateLimit.TABLE_SIZE, rateLimit.BURST, rateLimit.REFILL_PER_SECOND,
+          rateLimit.EXPIRE_MILLIS, rateLimit.IPV4_PREFIX, rateLimit.IPV6_PREFIX);
+    }
   }
 
   @Subscribe(order = PostOrder.FIRST)
   public void onProxyConnect(PreLoginEvent event) {
     this.plugin.getStatistics().addConnection();
 
-    if (this.plugin.checkCpsLimit(Settings.IMP.MAIN.FILTER_AUTO_TOGGLE.ONLINE_MODE_VERIFY)
-        && this.plugin.shouldCheck(event.getUsername(), event.getConnection().getRemoteAddress().getAddress())) {
+    InetAddress address = event.getConnection().getRemoteAddress().getAddress();
+    boolean subnetRateLimit = this.subnetRateLimiter != null && this.plugin.checkCpsLimit(Settings.IMP.MAIN.FILTER_AUTO_TOGGLE.SUBNET_RATE_LIMIT);
+    boolean onlineModeVerify = this.plugin.checkCpsLimit(Settings.IMP.MAIN.FILTER_AUTO_TOGGLE.ONLINE_MODE_VERIFY);
+    if ((!subnetRateLimit && !onlineModeVerify) || !this.plugin.shouldCheck(event.getUsername(), address)) {
+      return;
+    }
+
+    // Verified players are let through, so they aren't denied for sharing a CGNAT range with bots.
+    if (subnetRateLimit && !this.subnetRateLimiter.tryAcquire(address)) {
+      this.plugin.getStatistics().addBlockedConnection();
+      event.setResult(PreLoginEvent.PreLoginComponentResult.denied(this.subnetRateLimitKick));
+      return;
+    }
+
+    if (onlineModeVerify) {
       event.setResult(PreLoginEvent.PreLoginComponentResult.forceOfflineMode());
     }
   }
@@ -63,6 +96,15 @@ public class FilterListener {
   public void onLogin(LoginLimboRegisterEvent event) {
     Player player = event.getPlayer();
     if (this.plugin.shouldCheck(player)) {
+      if (this.plugin.checkCpsLimit(Settings.IMP.MAIN.FILTER_AUTO_TOGGLE.PRE_SPAWN_CHECK)) {
+        PreSpawnCheck.Result result = this.plugin.getPreSpawnCheck().check(player.getUsername(), player.getRemoteAddress().getAddress());
+        if (result != PreSpawnCheck.Result.PASSED) {
+          this.plugin.getStatistics().addBlockedConnection();
+          player.disconnect(this.preSpawnCheckKick);
+          return;
+        }
+      }
+
       event.addOnJoinCallback(() -> this.plugin.sendToFilterServer(player));
     }
   }
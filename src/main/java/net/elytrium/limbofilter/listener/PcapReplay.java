@@ -0,0 +1,170 @@
+/*
+ * Copyright (C) 2021 - 2025 Elytrium
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.elytrium.limbofilter.listener;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+// Replays a classic libpcap capture file through the same L4 ping logic as the live capture.
+public class PcapReplay {
+
+  private static final int MAGIC_MICROS = 0xA1B2C3D4;
+  private static final int MAGIC_NANOS = 0xA1B23C4D;
+  private static final int MAX_FRAME_LENGTH = 262144;
+
+  private final Path file;
+  private final int port;
+  private final double speed;
+  private final long listenDelay;
+
+  private volatile boolean stopped;
+  private long frames;
+  private long pings;
+  private long elapsedNanos;
+
+  // Speed is relative to the recorded one, 0 replays the file as fast as possible.
+  public PcapReplay(Path file, int port, double speed, long listenDelay) {
+    this.file = file;
+    this.port = port;
+    this.speed = speed;
+    this.listenDelay = listenDelay;
+  }
+
+  public void replay(PingConsumer consumer) throws IOException, InterruptedException {
+    long startTime = System.nanoTime();
+    try (FileChannel channel = FileChannel.open(this.file)) {
+      ByteBuffer fileHeader = ByteBuffer.allocate(24);
+      if (!readFully(channel, fileHeader)) {
+        throw new EOFException(this.file + " is too short to be a pcap file");
+      }
+
+      int magic = fileHeader.getInt(0);
+      if (magic == Integer.reverseBytes(MAGIC_MICROS) || magic == Integer.reverseBytes(MAGIC_NANOS)) {
+        fileHeader.order(ByteOrder.LITTLE_ENDIAN);
+        magic = Integer.reverseBytes(magic);
+      } else if (magic != MAGIC_MICROS && magic != MAGIC_NANOS) {
+        throw new IOException(this.file + " is not a pcap file (pcapng is not supported)");
+      }
+
+      boolean nanos = magic == MAGIC_NANOS;
+      // The upper bits may hold the FCS length.
+      int linkType = fileHeader.getInt(20) & 0x0FFFFFFF;
+      TcpHeaderParser parser = TcpHeaderParser.forLinkTypeNumber(linkType);
+      if (parser == null) {
+        throw new IOException("Unsupported link type " + linkType + " in " + this.file);
+      }
+
+      TcpAwaitingPacketTable awaitingPackets = new TcpAwaitingPacketTable();
+      ByteBuffer recordHeader = ByteBuffer.allocate(16).order(fileHeader.order());
+      ByteBuffer frame = ByteBuffer.allocate(MAX_FRAME_LENGTH);
+      long firstFrameTime = -1;
+      while (!this.stopped) {
+        recordHeader.clear();
+        if (!readFully(channel, recordHeader)) {
+          break;
+        }
+
+        long seconds = recordHeader.getInt(0) & 0xFFFFFFFFL;
+        long fraction = recordHeader.getInt(4) & 0xFFFFFFFFL;
+        int length = recordHeader.getInt(8);
+        if (length < 0 || length > MAX_FRAME_LENGTH) {
+          throw new IOException("Corrupted frame length " + length + " in " + this.file);
+        }
+
+        frame.clear().limit(length);
+        if (!readFully(channel, frame)) {
+          break;
+        }
+
+        ++this.frames;
+        long frameTime = seconds * 1000 + (nanos ? fraction / 1_000_000 : fraction / 1000);
+        if (firstFrameTime == -1) {
+          firstFrameTime = frameTime;
+        } else if (this.speed > 0) {
+          long sleepNanos = (long) ((frameTime - firstFrameTime) * 1_000_000 / this.speed) - (System.nanoTime() - startTime);
+          if (sleepNanos > 0) {
+            TimeUnit.NANOSECONDS.sleep(sleepNanos);
+          }
+        }
+
+        if (!parser.parse(frame)) {
+          continue;
+        }
+
+        if (parser.getSrcPort() == this.port && parser.isPsh() && parser.isAck()) {
+          awaitingPackets.onPush(parser.getDstHigh(), parser.getDstLow(), parser.getPushKey(), frameTime, this.listenDelay);
+        } else if (parser.getDstPort() == this.port) {
+          long high = parser.getSrcHigh();
+          long low = parser.getSrcLow();
+          // There are no filtered players to register, so every client is tracked.
+          if (!awaitingPackets.contains(high, low)) {
+            awaitingPackets.register(high, low, frameTime);
+          }
+
+          if (parser.isAck()) {
+            int ping = awaitingPackets.onAck(high, low, parser.getAckKey(), frameTime);
+            if (ping >= TcpAwaitingPacketTable.getMinSample(parser.hasTimestamp())) {
+              ++this.pings;
+              consumer.accept(high, low, ping, frameTime);
+            }
+          }
+        }
+      }
+    } finally {
+      this.elapsedNanos = System.nanoTime() - startTime;
+    }
+  }
+
+  // A truncated last frame is treated as the end of the file, as capture is often interrupted mid-write.
+  private static boolean readFully(FileChannel channel, ByteBuffer buffer) throws IOException {
+    while (buffer.hasRemaining()) {
+      if (channel.read(buffer) == -1) {
+        return false;
+      }
+    }
+
+    buffer.flip();
+    return true;
+  }
+
+  public void stop() {
+    this.stopped = true;
+  }
+
+  public long getFrames() {
+    return this.frames;
+  }
+
+  public long getPings() {
+    return this.pings;
+  }
+
+  public long getElapsedNanos() {
+    return this.elapsedNanos;
+  }
+
+  public interface PingConsumer {
+
+    void accept(long addressHigh, long addressLow, int ping, long timestamp);
+  }
+}
@@ -0,0 +1,187 @@
+/*
+ * Copyright (C) 2021 - 2025 Elytrium
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.elytrium.limbofilter.listener;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import net.elytrium.limbofilter.utils.AddressUtils;
+
+public class TcpAwaitingPacketTable {
+
+  private static final int INITIAL_CAPACITY = 1024;
+  private static final int MAX_PROBES = 16;
+  // Registered addresses look as if the last PSH+ACK was sent ~12 days ago, so the first one is always tracked.
+  private static final int NEVER = 1 << 30;
+
+  private volatile Slots slots = new Slots(INITIAL_CAPACITY);
+  private int size;
+
+  public synchronized void register(long high, long low, long currentTime) {
+    long state = pack(Integer.MIN_VALUE, (int) currentTime - NEVER);
+    while (!this.slots.put(high, low, state)) {
+      this.slots = this.slots.grow();
+    }
+
+    if (++this.size * 2 > this.slots.capacity()) {
+      this.slots = this.slots.grow();
+    }
+  }
+
+  public synchronized void remove(long high, long low) {
+    if (this.slots.remove(high, low)) {
+      --this.size;
+    }
+  }
+
+  public boolean contains(long high, long low) {
+    return this.slots.indexOf(high, low) != -1;
+  }
+
+  // Called from the capture thread when the proxy sends a PSH+ACK segment to the address.
+  public void onPush(long high, long low, int key, long currentTime, long listenDelay) {
+    Slots slots = this.slots;
+    int index = slots.indexOf(high, low);
+    if (index == -1) {
+      return;
+    }
+
+    int time = (int) currentTime;
+    long state;
+    do {
+      state = slots.states.get(index);
+      if (time - (int) state < listenDelay) {
+        return;
+      }
+    } while (!slots.states.compareAndSet(index, state, pack(key, time)));
+  }
+
+  // Called from the capture thread when the address sends a segment. Returns -1 if it is not the awaited one.
+  // Each push is measured once, later segments carrying the same key would only add their own delay.
+  public int onAck(long high, long low, int key, long currentTime) {
+    Slots slots = this.slots;
+    int index = slots.indexOf(high, low);
+    if (index == -1) {
+      return -1;
+    }
+
+    long state = slots.states.get(index);
+    int time = (int) state;
+    if ((int) (state >>> 32) != key || !slots.states.compareAndSet(index, state, pack(~key, time))) {
+      return -1;
+    }
+
+    return Math.max((int) currentTime - time, 0);
+  }
+
+  // Without TCP timestamps the client's next segment is awaited, which on a LAN is often its own ACK already in flight.
+  public static int getMinSample(boolean timestamp) {
+    return timestamp ? 0 : 3;
+  }
+
+  private static long pack(int seq, int time) {
+    return ((long) seq << 32) | (time & 0xFFFFFFFFL);
+  }
+
+  private static class Slots {
+
+    // :: is never a remote address, so zero keys mark free slots.
+    private final AtomicLongArray highs;
+    private final AtomicLongArray lows;
+    private final AtomicLongArray states;
+    private final int mask;
+
+    private Slots(int capacity) {
+      this.highs = new AtomicLongArray(capacity);
+      this.lows = new AtomicLongArray(capacity);
+      this.states = new AtomicLongArray(capacity);
+      this.mask = capacity - 1;
+    }
+
+    private int capacity() {
+      return this.mask + 1;
+    }
+
+    private int indexOf(long high, long low) {
+      for (int probe = 0, index = (int) AddressUtils.hash(high, low) & this.mask; probe < MAX_PROBES; ++probe, index = (index + 1) & this.mask) {
+        if (this.lows.get(index) == low && this.highs.get(index) == high) {
+          return index;
+        }
+      }
+
+      return -1;
+    }
+
+    private boolean put(long high, long low, long state) {
+      int free = -1;
+      for (int probe = 0, index = (int) AddressUtils.hash(high, low) & this.mask; probe < MAX_PROBES; ++probe, index = (index + 1) & this.mask) {
+        long slotLow = this.lows.get(index);
+        long slotHigh = this.highs.get(index);
+        if (slotLow == low && slotHigh == high) {
+          this.states.set(index, state);
+          return true;
+        }
+
+        if (free == -1 && slotLow == 0 && slotHigh == 0) {
+          free = index;
+        }
+      }
+
+      if (free == -1) {
+        return false;
+      }
+
+      this.states.set(free, state);
+      this.highs.set(free, high);
+      this.lows.set(free, low);
+      return true;
+    }
+
+    private boolean remove(long high, long low) {
+      int index = this.indexOf(high, low);
+      if (index == -1) {
+        return false;
+      }
+
+      this.lows.set(index, 0);
+      this.highs.set(index, 0);
+      return true;
+    }
+
+    // Updates made by the capture thread while copying may be lost, it only costs one ping sample.
+    private Slots grow() {
+      for (int capacity = this.capacity() << 1; ; capacity <<= 1) {
+        Slots grown = new Slots(capacity);
+        if (this.copyTo(grown)) {
+          return grown;
+        }
+      }
+    }
+
+    // Returns false if an address didn't fit into its probe window, then a bigger table is needed.
+    private boolean copyTo(Slots grown) {
+      for (int index = 0; index <= this.mask; ++index) {
+        long high = this.highs.get(index);
+        long low = this.lows.get(index);
+        if ((high != 0 || low != 0) && !grown.put(high, low, this.states.get(index))) {
+          return false;
+        }
+      }
+
+      return true;
+    }
+  }
+}
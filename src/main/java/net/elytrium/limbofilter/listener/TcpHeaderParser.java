@@ -0,0 +1,269 @@
+/*
+ * Copyright (C) 2021 - 2025 Elytrium
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.elytrium.limbofilter.listener;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import net.elytrium.pcap.layer.data.LinkType;
+
+// Reads the only fields TcpListener needs straight from the captured frame, without decoding it into layers.
+public class TcpHeaderParser {
+
+  private static final int ETHER_TYPE_IPV4 = 0x0800;
+  private static final int ETHER_TYPE_IPV6 = 0x86DD;
+  private static final int ETHER_TYPE_VLAN = 0x8100;
+  private static final int PROTOCOL_TCP = 6;
+  private static final int FLAG_PSH = 0x08;
+  private static final int FLAG_ACK = 0x10;
+  private static final int OPTION_END = 0;
+  private static final int OPTION_NOP = 1;
+  private static final int OPTION_TIMESTAMP = 8;
+
+  private final LinkLayer linkLayer;
+
+  private long srcHigh;
+  private long srcLow;
+  private long dstHigh;
+  private long dstLow;
+  private int srcPort;
+  private int dstPort;
+  private int sequence;
+  private int ackSn;
+  private int flags;
+  private boolean timestamp;
+  private int timestampValue;
+  private int timestampEcho;
+
+  public TcpHeaderParser(LinkType linkType) {
+    this(LinkLayer.of(linkType));
+  }
+
+  private TcpHeaderParser(LinkLayer linkLayer) {
+    this.linkLayer = linkLayer;
+  }
+
+  public static boolean isSupported(LinkType linkType) {
+    return LinkLayer.of(linkType) != null;
+  }
+
+  // Creates a parser from the LINKTYPE_ number stored in capture files, null if it is not supported.
+  public static TcpHeaderParser forLinkTypeNumber(int linkType) {
+    LinkLayer linkLayer = LinkLayer.of(linkType);
+    return linkLayer == null ? null : new TcpHeaderParser(linkLayer);
+  }
+
+  public boolean parse(ByteBuffer frame) {
+    int limit = frame.limit();
+    // Shorter than the smallest IP + TCP header.
+    if (limit < 40) {
+      return false;
+    }
+
+    frame.order(ByteOrder.BIG_ENDIAN);
+    int offset;
+    int etherType;
+    switch (this.linkLayer) {
+      case ETHERNET:
+        offset = 14;
+        etherType = frame.getShort(12) & 0xFFFF;
+        if (etherType == ETHER_TYPE_VLAN) {
+          offset += 4;
+          etherType = frame.getShort(16) & 0xFFFF;
+        }
+        break;
+      case LINUX_SLL:
+        offset = 16;
+        etherType = frame.getShort(14) & 0xFFFF;
+        break;
+      case LINUX_SLL2:
+        offset = 20;
+        etherType = frame.getShort(0) & 0xFFFF;
+        break;
+      default:
+        offset = 0;
+        etherType = (frame.get(0) & 0xF0) == 0x60 ? ETHER_TYPE_IPV6 : ETHER_TYPE_IPV4;
+        break;
+    }
+
+    int tcpOffset;
+    if (etherType == ETHER_TYPE_IPV4) {
+      if (offset + 20 > limit || frame.get(offset + 9) != PROTOCOL_TCP || (frame.getShort(offset + 6) & 0x1FFF) != 0) {
+        return false;
+      }
+
+      this.srcHigh = 0;
+      this.srcLow = 0xFFFF_0000_0000L | (frame.getInt(offset + 12) & 0xFFFFFFFFL);
+      this.dstHigh = 0;
+      this.dstLow = 0xFFFF_0000_0000L | (frame.getInt(offset + 16) & 0xFFFFFFFFL);
+      tcpOffset = offset + (frame.get(offset) & 0x0F) * 4;
+    } else if (etherType == ETHER_TYPE_IPV6) {
+      // Extension headers are not expected on TCP traffic, such frames are skipped.
+      if (offset + 40 > limit || frame.get(offset + 6) != PROTOCOL_TCP) {
+        return false;
+      }
+
+      this.srcHigh = frame.getLong(offset + 8);
+      this.srcLow = frame.getLong(offset + 16);
+      this.dstHigh = frame.getLong(offset + 24);
+      this.dstLow = frame.getLong(offset + 32);
+      tcpOffset = offset + 40;
+    } else {
+      return false;
+    }
+
+    if (tcpOffset + 14 > limit) {
+      return false;
+    }
+
+    this.srcPort = frame.getShort(tcpOffset) & 0xFFFF;
+    this.dstPort = frame.getShort(tcpOffset + 2) & 0xFFFF;
+    this.sequence = frame.getInt(tcpOffset + 4);
+    this.ackSn = frame.getInt(tcpOffset + 8);
+    this.flags = frame.get(tcpOffset + 13) & 0xFF;
+    this.parseOptions(frame, tcpOffset + 20, Math.min(tcpOffset + ((frame.get(tcpOffset + 12) & 0xF0) >>> 2), limit));
+    return true;
+  }
+
+  private void parseOptions(ByteBuffer frame, int offset, int end) {
+    this.timestamp = false;
+    while (offset < end) {
+      int kind = frame.get(offset) & 0xFF;
+      if (kind == OPTION_END) {
+        return;
+      } else if (kind == OPTION_NOP) {
+        ++offset;
+        continue;
+      }
+
+      if (offset + 1 >= end) {
+        return;
+      }
+
+      int length = frame.get(offset + 1) & 0xFF;
+      if (length < 2 || offset + length > end) {
+        return;
+      }
+
+      if (kind == OPTION_TIMESTAMP && length == 10) {
+        this.timestamp = true;
+        this.timestampValue = frame.getInt(offset + 2);
+        this.timestampEcho = frame.getInt(offset + 6);
+        return;
+      }
+
+      offset += length;
+    }
+  }
+
+  public long getSrcHigh() {
+    return this.srcHigh;
+  }
+
+  public long getSrcLow() {
+    return this.srcLow;
+  }
+
+  public long getDstHigh() {
+    return this.dstHigh;
+  }
+
+  public long getDstLow() {
+    return this.dstLow;
+  }
+
+  public int getSrcPort() {
+    return this.srcPort;
+  }
+
+  public int getDstPort() {
+    return this.dstPort;
+  }
+
+  public int getSequence() {
+    return this.sequence;
+  }
+
+  public int getAckSn() {
+    return this.ackSn;
+  }
+
+  public boolean hasTimestamp() {
+    return this.timestamp;
+  }
+
+  // What the proxy segment is identified by: the TCP timestamp if negotiated, otherwise the ack number.
+  public int getPushKey() {
+    return this.timestamp ? this.timestampValue : this.ackSn;
+  }
+
+  // What the client segment is matched by: the echoed timestamp, or the sequence number.
+  public int getAckKey() {
+    return this.timestamp ? this.timestampEcho : this.sequence;
+  }
+
+  public boolean isPsh() {
+    return (this.flags & FLAG_PSH) != 0;
+  }
+
+  public boolean isAck() {
+    return (this.flags & FLAG_ACK) != 0;
+  }
+
+  private enum LinkLayer {
+    ETHERNET,
+    LINUX_SLL,
+    LINUX_SLL2,
+    RAW;
+
+    // Matched by name as the constant names differ between pcap versions.
+    private static LinkLayer of(LinkType linkType) {
+      switch (linkType.name()) {
+        case "ETHERNET":
+        case "EN10MB":
+          return ETHERNET;
+        case "LINUX_SLL":
+          return LINUX_SLL;
+        case "LINUX_SLL2":
+          return LINUX_SLL2;
+        case "RAW":
+        case "IPV4":
+        case "IPV6":
+          return RAW;
+        default:
+          return null;
+      }
+    }
+
+    private static LinkLayer of(int linkType) {
+      switch (linkType) {
+        case 1:
+          return ETHERNET;
+        case 113:
+          return LINUX_SLL;
+        case 276:
+          return LINUX_SLL2;
+        case 101:
+        case 228:
+        case 229:
+          return RAW;
+        default:
+          return null;
+      }
+    }
+  }
+}
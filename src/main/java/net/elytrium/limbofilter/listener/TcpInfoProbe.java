@@ -0,0 +1,50 @@
+/*
+ * Copyright (C) 2021 - 2025 Elytrium
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.elytrium.limbofilter.listener;
+
+import com.velocitypowered.api.proxy.Player;
+import com.velocitypowered.proxy.connection.client.ConnectedPlayer;
+import io.netty.channel.Channel;
+import io.netty.channel.epoll.Epoll;
+import io.netty.channel.epoll.EpollSocketChannel;
+import io.netty.channel.epoll.EpollTcpInfo;
+import net.elytrium.limbofilter.stats.PingTable;
+
+// Reads the RTT the kernel already tracks for the player's socket, no packet capture needed.
+public class TcpInfoProbe {
+
+  public static boolean isAvailable() {
+    try {
+      return Epoll.isAvailable();
+    } catch (NoClassDefFoundError e) {
+      return false;
+    }
+  }
+
+  // Returns PingTable.UNKNOWN if the proxy doesn't use the epoll transport.
+  public static long getPingState(Player player) {
+    Channel channel = ((ConnectedPlayer) player).getConnection().getChannel();
+    if (!(channel instanceof EpollSocketChannel)) {
+      return PingTable.UNKNOWN;
+    }
+
+    EpollTcpInfo info = ((EpollSocketChannel) channel).tcpInfo();
+    // tcpi_min_rtt is not exposed by Netty, so the state only has the smoothed RTT and its variation.
+    return PingTable.createState(info.rtt() / 1000.0, info.rttvar() / 1000.0);
+  }
+}
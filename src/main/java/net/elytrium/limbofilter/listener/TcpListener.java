@@ -17,17 +17,25 @@
 
 package net.elytrium.limbofilter.listener;
 
+import com.velocitypowered.api.scheduler.ScheduledTask;
 import com.velocitypowered.proxy.config.VelocityConfiguration;
 import java.net.InetAddress;
 import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
 import java.util.Collection;
-import java.util.HashMap;
-import java.util.Map;
+import java.util.List;
 import java.util.Objects;
 import java.util.Set;
+import java.util.StringJoiner;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
 import java.util.stream.Collectors;
 import net.elytrium.limbofilter.LimboFilter;
 import net.elytrium.limbofilter.Settings;
+import net.elytrium.limbofilter.utils.AddressUtils;
 import net.elytrium.pcap.Pcap;
 import net.elytrium.pcap.PcapException;
 import net.elytrium.pcap.data.PcapAddress;
@@ -40,14 +48,18 @@ import net.elytrium.pcap.layer.Packet;
 import net.elytrium.pcap.layer.TCP;
 import net.elytrium.pcap.layer.data.LinkType;
 import net.elytrium.pcap.layer.exception.LayerDecodeException;
-import org.checkerframework.checker.nullness.qual.MonotonicNonNull;
 
 public class TcpListener {
 
   private final LimboFilter plugin;
-  private final Map<InetAddress, TcpAwaitingPacket> tempPingTimestamp = new HashMap<>();
-  @MonotonicNonNull
-  private PcapHandle handle;
+  private final List<Capture> captures = new ArrayList<>();
+  // Addresses are sharded between the capture threads by their last byte, so the kernel can split the traffic.
+  private final TcpAwaitingPacketTable[] awaitingPackets;
+  private final int shardMask;
+  private final Set<InetAddress> filteredAddresses = ConcurrentHashMap.newKeySet();
+  private final AtomicBoolean filterOutdated = new AtomicBoolean();
+  private ScheduledTask filterUpdateTask;
+  private int port;
 
   static {
     try {
@@ -59,94 +71,266 @@ public class TcpListener {
 
   public TcpListener(LimboFilter plugin) {
     this.plugin = plugin;
+
+    int shards = Integer.highestOneBit(Math.min(Math.max(Settings.IMP.MAIN.TCP_LISTENER.CAPTURE_THREADS, 1), 256));
+    this.awaitingPackets = new TcpAwaitingPacketTable[shards];
+    for (int i = 0; i < shards; ++i) {
+      this.awaitingPackets[i] = new TcpAwaitingPacketTable();
+    }
+
+    this.shardMask = shards - 1;
+  }
+
+  public synchronized void start() throws PcapException {
+    this.port = ((VelocityConfiguration) this.plugin.getServer().getConfiguration()).getBind().getPort();
+
+    try {
+      for (String interfaceName : Settings.IMP.MAIN.TCP_LISTENER.INTERFACE_NAME.split(",")) {
+        for (int shard = 0; shard <= this.shardMask; ++shard) {
+          this.captures.add(new Capture(interfaceName.trim(), shard));
+        }
+      }
+    } catch (PcapException e) {
+      this.captures.forEach(capture -> capture.handle.close());
+      this.captures.clear();
+      throw e;
+    }
+
+    this.updateFilter();
+    if (Settings.IMP.MAIN.TCP_LISTENER.FILTER_UPDATE_INTERVAL > 0) {
+      this.filterUpdateTask = this.plugin.getServer().getScheduler()
+          .buildTask(this.plugin, () -> {
+            if (this.filterOutdated.getAndSet(false)) {
+              this.updateFilter();
+            }
+          })
+          .delay(Settings.IMP.MAIN.TCP_LISTENER.FILTER_UPDATE_INTERVAL, TimeUnit.MILLISECONDS)
+          .repeat(Settings.IMP.MAIN.TCP_LISTENER.FILTER_UPDATE_INTERVAL, TimeUnit.MILLISECONDS)
+          .schedule();
+    }
+
+    for (Capture capture : this.captures) {
+      capture.start();
+    }
+  }
+
+  // Only PSH+ACK segments sent to the filtered addresses and ACK segments sent by them cross into userspace.
+  // The addresses registered after that are only captured once the next update adds them, the filter is never widened in between.
+  private synchronized void updateFilter() {
+    String hosts = null;
+    if (Settings.IMP.MAIN.TCP_LISTENER.FILTER_UPDATE_INTERVAL > 0) {
+      int count = 0;
+      StringJoiner joiner = new StringJoiner(" or ", "(", ")");
+      for (InetAddress address : this.filteredAddresses) {
+        if (++count > Settings.IMP.MAIN.TCP_LISTENER.FILTER_MAX_ADDRESSES) {
+          break;
+        }
+
+        String host = address.getHostAddress();
+        int scope = host.indexOf('%');
+        joiner.add(scope == -1 ? host : host.substring(0, scope));
+      }
+
+      if (count != 0 && count <= Settings.IMP.MAIN.TCP_LISTENER.FILTER_MAX_ADDRESSES) {
+        hosts = joiner.toString();
+      }
+    }
+
+    for (Capture capture : this.captures) {
+      capture.requestFilter(this.createFilter(hosts, capture.shard));
+    }
+  }
+
+  private String createFilter(String hosts, int shard) {
+    String pushFromProxy = "src port " + this.port + " and (ip6 or tcp[tcpflags] & (tcp-push|tcp-ack) == (tcp-push|tcp-ack))";
+    String ackToProxy = "dst port " + this.port + " and (ip6 or tcp[tcpflags] & tcp-ack != 0)";
+
+    if (hosts != null) {
+      pushFromProxy += " and dst host " + hosts;
+      ackToProxy += " and src host " + hosts;
+    }
+
+    if (this.shardMask != 0) {
+      // Last byte of the destination/source address.
+      pushFromProxy += " and " + this.createShardFilter(19, 39, shard);
+      ackToProxy += " and " + this.createShardFilter(15, 23, shard);
+    }
+
+    return "tcp and ((" + pushFromProxy + ") or (" + ackToProxy + "))";
   }
 
-  public void start() throws PcapException {
-    this.handle = Pcap.openLive(Settings.IMP.MAIN.TCP_LISTENER.INTERFACE_NAME, Settings.IMP.MAIN.TCP_LISTENER.SNAPLEN, 1,
-        Settings.IMP.MAIN.TCP_LISTENER.TIMEOUT
-    );
+  private String createShardFilter(int ipv4Offset, int ipv6Offset, int shard) {
+    return "((ip and ip[" + ipv4Offset + "] & " + this.shardMask + " == " + shard + ")"
+        + " or (ip6 and ip6[" + ipv6Offset + "] & " + this.shardMask + " == " + shard + "))";
+  }
+
+  private void onPush(long dstHigh, long dstLow, int key) {
+    this.getAwaitingPackets(dstLow).onPush(dstHigh, dstLow, key, System.currentTimeMillis(), Settings.IMP.MAIN.TCP_LISTENER.LISTEN_DELAY);
+  }
 
-    int port = ((VelocityConfiguration) this.plugin.getServer().getConfiguration()).getBind().getPort();
-    BpfProgram filter = this.handle.compile("tcp and (dst port " + port + " or src port " + port + ")", 1);
-    this.handle.setFilter(filter);
-    filter.free();
+  private void onAck(long srcHigh, long srcLow, int key, boolean timestamp) {
+    int pingDiff = this.getAwaitingPackets(srcLow).onAck(srcHigh, srcLow, key, System.currentTimeMillis());
+    if (pingDiff >= TcpAwaitingPacketTable.getMinSample(timestamp)) {
+      this.plugin.getStatistics().updatePing(srcHigh, srcLow, pingDiff);
+    }
+  }
 
-    Set<InetAddress> localAddresses = Pcap.findAllDevs().stream()
+  private TcpAwaitingPacketTable getAwaitingPackets(long addressLow) {
+    return this.awaitingPackets[(int) addressLow & this.shardMask];
+  }
+
+  private static Set<InetAddress> findLocalAddresses() throws PcapException {
+    return Pcap.findAllDevs().stream()
         .map(PcapDevice::getAddresses)
         .flatMap(Collection::stream)
         .map(PcapAddress::getAddress)
         .filter(Objects::nonNull)
         .map(InetSocketAddress::getAddress)
         .collect(Collectors.toSet());
+  }
+
+  public void registerAddress(InetAddress address) {
+    byte[] bytes = address.getAddress();
+    long low = AddressUtils.getLow(bytes);
+    this.getAwaitingPackets(low).register(AddressUtils.getHigh(bytes), low, System.currentTimeMillis());
+    if (this.filteredAddresses.add(address)) {
+      this.filterOutdated.set(true);
+    }
+  }
+
+  public void removeAddress(InetAddress address) {
+    byte[] bytes = address.getAddress();
+    long low = AddressUtils.getLow(bytes);
+    this.getAwaitingPackets(low).remove(AddressUtils.getHigh(bytes), low);
+    if (this.filteredAddresses.remove(address)) {
+      this.filterOutdated.set(true);
+    }
+  }
+
+  public synchronized void stop() {
+    if (this.filterUpdateTask != null) {
+      this.filterUpdateTask.cancel();
+    }
+
+    for (Capture capture : this.captures) {
+      capture.stop();
+    }
+
+    this.captures.clear();
+  }
 
-    LinkType datalink = this.handle.datalink();
-    new Thread(() -> {
-      Thread.currentThread().setContextClassLoader(LimboFilter.class.getClassLoader());
-      long listenDelay = Settings.IMP.MAIN.TCP_LISTENER.LISTEN_DELAY;
+  // The pcap handle is only used by its capture thread, other threads may only call breakLoop on it.
+  private class Capture {
+
+    private final PcapHandle handle;
+    private final int shard;
+    private final AtomicReference<String> pendingFilter = new AtomicReference<>();
+    private volatile boolean running;
+    private boolean started;
+
+    private Capture(String interfaceName, int shard) throws PcapException {
+      this.handle = Pcap.openLive(interfaceName, Settings.IMP.MAIN.TCP_LISTENER.SNAPLEN, 1, Settings.IMP.MAIN.TCP_LISTENER.TIMEOUT);
+      this.shard = shard;
+    }
+
+    // The filter is applied by the capture thread, the loop is broken to let it do so.
+    private void requestFilter(String expression) {
+      this.pendingFilter.set(expression);
+      if (this.running) {
+        this.handle.breakLoop();
+      }
+    }
+
+    private void applyPendingFilter() {
+      String expression = this.pendingFilter.getAndSet(null);
+      if (expression == null) {
+        return;
+      }
 
       try {
-        this.handle.loop(-1, (packetHeader, rawPacket) -> {
-          try {
-            Packet packet = new Packet();
-            packet.decode(rawPacket, datalink);
-
-            // Ethernet/LinuxSLL -> IP -> TCP
-            IP ipPacket = (IP) packet.getLayers().get(1);
-            TCP tcpPacket = (TCP) packet.getLayers().get(2);
-
-            if (localAddresses.contains(ipPacket.getSrcAddress()) && tcpPacket.isPsh() && tcpPacket.isAck()) {
-              TcpAwaitingPacket previousPacket = this.tempPingTimestamp.get(ipPacket.getDstAddress());
-              if (previousPacket != null) {
-                long currentTime = System.currentTimeMillis();
-                if (previousPacket.time + listenDelay <= currentTime) {
-                  previousPacket.seq = tcpPacket.getAckSn();
-                  previousPacket.time = currentTime;
-                }
-              }
-            }
+        BpfProgram filter = this.handle.compile(expression, 1);
+        this.handle.setFilter(filter);
+        filter.free();
+      } catch (PcapException e) {
+        LimboFilter.getLogger().warn("Failed to update the TCP listener filter", e);
+      }
+    }
 
-            if (localAddresses.contains(ipPacket.getDstAddress()) && tcpPacket.isAck()) {
-              TcpAwaitingPacket awaitingPacket = this.tempPingTimestamp.get(ipPacket.getSrcAddress());
-              if (awaitingPacket != null && awaitingPacket.seq == tcpPacket.getSequence()) {
-                int pingDiff = (int) (System.currentTimeMillis() - awaitingPacket.time);
-                if (pingDiff > 2) {
-                  this.plugin.getStatistics().updatePing(ipPacket.getSrcAddress(), pingDiff);
+    private void start() throws PcapException {
+      int port = TcpListener.this.port;
+      LinkType datalink = this.handle.datalink();
+      // Frames of unknown link types are still decoded layer by layer.
+      TcpHeaderParser parser = TcpHeaderParser.isSupported(datalink) ? new TcpHeaderParser(datalink) : null;
+      Set<InetAddress> localAddresses = parser == null ? findLocalAddresses() : null;
+      this.started = true;
+      this.running = true;
+      new Thread(() -> {
+        Thread.currentThread().setContextClassLoader(LimboFilter.class.getClassLoader());
+
+        try {
+          while (this.running) {
+            this.applyPendingFilter();
+            try {
+              this.handle.loop(-1, (packetHeader, rawPacket) -> {
+                if (parser == null) {
+                  this.decodeFrame(rawPacket, datalink, localAddresses);
+                } else if (parser.parse(rawPacket)) {
+                  if (parser.getSrcPort() == port && parser.isPsh() && parser.isAck()) {
+                    TcpListener.this.onPush(parser.getDstHigh(), parser.getDstLow(), parser.getPushKey());
+                  }
+
+                  if (parser.getDstPort() == port && parser.isAck()) {
+                    TcpListener.this.onAck(parser.getSrcHigh(), parser.getSrcLow(), parser.getAckKey(), parser.hasTimestamp());
+                  }
                 }
+              });
+            } catch (PcapException e) {
+              if (e.getError() != PcapError.ERROR_BREAK) {
+                throw new IllegalStateException(e);
               }
             }
-          } catch (LayerDecodeException e) {
-            throw new IllegalStateException(e);
           }
-        });
-      } catch (PcapException e) {
-        if (e.getError() != PcapError.ERROR_BREAK) {
-          throw new IllegalStateException(e);
+        } finally {
+          // breakLoop is only called with the listener monitor held.
+          synchronized (TcpListener.this) {
+            this.running = false;
+            this.handle.close();
+          }
         }
-      }
-    }).start();
-  }
-
-  public void registerAddress(InetAddress address) {
-    this.tempPingTimestamp.put(address, new TcpAwaitingPacket(Integer.MIN_VALUE, 0));
-  }
+      }).start();
+    }
 
-  public void removeAddress(InetAddress address) {
-    this.tempPingTimestamp.remove(address);
-  }
+    private void decodeFrame(ByteBuffer rawPacket, LinkType datalink, Set<InetAddress> localAddresses) {
+      try {
+        Packet packet = new Packet();
+        packet.decode(rawPacket, datalink);
 
-  public void stop() {
-    this.handle.breakLoop();
-    this.handle.close();
-  }
+        // Ethernet/LinuxSLL -> IP -> TCP
+        IP ipPacket = (IP) packet.getLayers().get(1);
+        TCP tcpPacket = (TCP) packet.getLayers().get(2);
 
-  private static class TcpAwaitingPacket {
+        if (localAddresses.contains(ipPacket.getSrcAddress()) && tcpPacket.isPsh() && tcpPacket.isAck()) {
+          byte[] dstAddress = ipPacket.getDstAddress().getAddress();
+          TcpListener.this.onPush(AddressUtils.getHigh(dstAddress), AddressUtils.getLow(dstAddress), tcpPacket.getAckSn());
+        }
 
-    private int seq;
-    private long time;
+        if (localAddresses.contains(ipPacket.getDstAddress()) && tcpPacket.isAck()) {
+          byte[] srcAddress = ipPacket.getSrcAddress().getAddress();
+          TcpListener.this.onAck(AddressUtils.getHigh(srcAddress), AddressUtils.getLow(srcAddress), tcpPacket.getSequence(), false);
+        }
+      } catch (LayerDecodeException e) {
+        throw new IllegalStateException(e);
+      }
+    }
 
-    private TcpAwaitingPacket(int seq, long time) {
-      this.seq = seq;
-      this.time = time;
+    private void stop() {
+      if (!this.started) {
+        this.handle.close();
+      } else if (this.running) {
+        // The handle is closed by the capture thread once it leaves the loop.
+        this.running = false;
+        this.handle.breakLoop();
+      }
     }
   }
 }
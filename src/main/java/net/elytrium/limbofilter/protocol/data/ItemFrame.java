@@ -26,6 +26,8 @@ import net.kyori.adventure.nbt.IntBinaryTag;
 
 public class ItemFrame {
 
+  public static final int FIRST_ENTITY_ID = 10;
+
   public static int getID(ProtocolVersion protocolVersion) {
     if (protocolVersion.compareTo(ProtocolVersion.MINECRAFT_1_13_2) <= 0) {
       return 71;
@@ -0,0 +1,194 @@
+/*
+ * Copyright (C) 2021 - 2025 Elytrium
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.elytrium.limbofilter.stats;
+
+import java.util.concurrent.locks.StampedLock;
+import net.elytrium.limbofilter.utils.AddressUtils;
+
+// Keeps min RTT, smoothed RTT and RTT variation per address, the way the kernel does (RFC 6298).
+public class PingTable {
+
+  public static final long UNKNOWN = -1;
+
+  private static final int SEGMENTS = 16;
+  private static final int MAX_PROBES = 16;
+  // The all-ones min field marks a state without a minimum, such as a single TCP_INFO reading.
+  private static final int MAX_SAMPLE = 0xFFFE;
+
+  // Packed estimator state: min RTT (16 bits) | srtt in 1/8 ms (19 bits) | rttvar in 1/4 ms (18 bits).
+  private static final int SRTT_SHIFT = 16;
+  private static final int RTTVAR_SHIFT = 35;
+  private static final long MIN_MASK = 0xFFFF;
+  private static final long SRTT_MASK = 0x7FFFF;
+  private static final long RTTVAR_MASK = 0x3FFFF;
+
+  private final Segment[] segments = new Segment[SEGMENTS];
+  private final int capacity;
+
+  public PingTable(int capacity) {
+    int segmentSize = Integer.highestOneBit(Math.max(capacity / SEGMENTS, MAX_PROBES) - 1) << 1;
+    for (int i = 0; i < SEGMENTS; ++i) {
+      this.segments[i] = new Segment(segmentSize);
+    }
+
+    this.capacity = capacity;
+  }
+
+  public void update(long high, long low, int sample, long ttlMillis) {
+    long hash = AddressUtils.hash(high, low);
+    this.segments[(int) (hash >>> 60)].update(high, low, (int) hash, Math.min(sample, MAX_SAMPLE), System.currentTimeMillis(), ttlMillis);
+  }
+
+  public long get(long high, long low, long ttlMillis) {
+    long hash = AddressUtils.hash(high, low);
+    return this.segments[(int) (hash >>> 60)].get(high, low, (int) hash, System.currentTimeMillis(), ttlMillis);
+  }
+
+  public void remove(long high, long low) {
+    long hash = AddressUtils.hash(high, low);
+    this.segments[(int) (hash >>> 60)].remove(high, low, (int) hash);
+  }
+
+  public int getCapacity() {
+    return this.capacity;
+  }
+
+  // Returns -1 if the state doesn't have a minimum.
+  public static int getMinPing(long state) {
+    return state == UNKNOWN || (state & MIN_MASK) == MIN_MASK ? -1 : (int) (state & MIN_MASK);
+  }
+
+  public static int getSmoothedPing(long state) {
+    return state == UNKNOWN ? -1 : (int) ((((state >>> SRTT_SHIFT) & SRTT_MASK) + 4) >>> 3);
+  }
+
+  public static int getPingVariation(long state) {
+    return state == UNKNOWN ? -1 : (int) ((((state >>> RTTVAR_SHIFT) & RTTVAR_MASK) + 2) >>> 2);
+  }
+
+  public static long createState(double smoothedPing, double pingVariation) {
+    return pack(MIN_MASK, Math.round(smoothedPing * 8), Math.round(pingVariation * 4));
+  }
+
+  private static long pack(long min, long srtt, long rttvar) {
+    return min | (Math.min(srtt, SRTT_MASK) << SRTT_SHIFT) | (Math.min(rttvar, RTTVAR_MASK) << RTTVAR_SHIFT);
+  }
+
+  private static long firstSample(int sample) {
+    return pack(sample, (long) sample << 3, (long) sample << 1);
+  }
+
+  private static long nextSample(long state, int sample) {
+    long srtt = (state >>> SRTT_SHIFT) & SRTT_MASK;
+    long rttvar = (state >>> RTTVAR_SHIFT) & RTTVAR_MASK;
+
+    long error = sample - (srtt >>> 3);
+    srtt += error;
+    rttvar += Math.abs(error) - (rttvar >>> 2);
+    return pack(Math.min(state & MIN_MASK, sample), Math.max(srtt, 0), Math.max(rttvar, 0));
+  }
+
+  private static class Segment {
+
+    private final StampedLock lock = new StampedLock();
+    private final long[] highs;
+    private final long[] lows;
+    // Zero means that the slot is free.
+    private final long[] times;
+    private final long[] states;
+    private final int mask;
+
+    private Segment(int size) {
+      this.highs = new long[size];
+      this.lows = new long[size];
+      this.times = new long[size];
+      this.states = new long[size];
+      this.mask = size - 1;
+    }
+
+    private void update(long high, long low, int hash, int sample, long currentTime, long ttlMillis) {
+      long stamp = this.lock.writeLock();
+      try {
+        int free = -1;
+        int oldest = -1;
+        for (int probe = 0, index = hash & this.mask; probe < MAX_PROBES; ++probe, index = (index + 1) & this.mask) {
+          long time = this.times[index];
+          if (time != 0 && this.highs[index] == high && this.lows[index] == low) {
+            this.states[index] = time + ttlMillis > currentTime ? nextSample(this.states[index], sample) : firstSample(sample);
+            this.times[index] = currentTime;
+            return;
+          }
+
+          if (free == -1 && (time == 0 || time + ttlMillis <= currentTime)) {
+            free = index;
+          } else if (oldest == -1 || time < this.times[oldest]) {
+            oldest = index;
+          }
+        }
+
+        int index = free != -1 ? free : oldest;
+        this.highs[index] = high;
+        this.lows[index] = low;
+        this.states[index] = firstSample(sample);
+        this.times[index] = currentTime;
+      } finally {
+        this.lock.unlockWrite(stamp);
+      }
+    }
+
+    private long get(long high, long low, int hash, long currentTime, long ttlMillis) {
+      long stamp = this.lock.tryOptimisticRead();
+      long state = this.find(high, low, hash, currentTime, ttlMillis);
+      if (!this.lock.validate(stamp)) {
+        stamp = this.lock.readLock();
+        try {
+          state = this.find(high, low, hash, currentTime, ttlMillis);
+        } finally {
+          this.lock.unlockRead(stamp);
+        }
+      }
+
+      return state;
+    }
+
+    private long find(long high, long low, int hash, long currentTime, long ttlMillis) {
+      for (int probe = 0, index = hash & this.mask; probe < MAX_PROBES; ++probe, index = (index + 1) & this.mask) {
+        long time = this.times[index];
+        if (time != 0 && this.highs[index] == high && this.lows[index] == low) {
+          return time + ttlMillis > currentTime ? this.states[index] : UNKNOWN;
+        }
+      }
+
+      return UNKNOWN;
+    }
+
+    private void remove(long high, long low, int hash) {
+      long stamp = this.lock.writeLock();
+      try {
+        for (int probe = 0, index = hash & this.mask; probe < MAX_PROBES; ++probe, index = (index + 1) & this.mask) {
+          if (this.times[index] != 0 && this.highs[index] == high && this.lows[index] == low) {
+            this.times[index] = 0;
+            return;
+          }
+        }
+      } finally {
+        this.lock.unlockWrite(stamp);
+      }
+    }
+  }
+}
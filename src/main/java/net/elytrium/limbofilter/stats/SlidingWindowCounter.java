@@ -0,0 +1,72 @@
+/*
+ * Copyright (C) 2021 - 2025 Elytrium
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.elytrium.limbofilter.stats;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+public class SlidingWindowCounter {
+
+  private final LongAdder[] buckets;
+  private final LongAdder total = new LongAdder();
+  private final AtomicLong lastSecond;
+
+  public SlidingWindowCounter(int windowSeconds) {
+    this.buckets = new LongAdder[Math.max(windowSeconds, 1)];
+    for (int i = 0; i < this.buckets.length; ++i) {
+      this.buckets[i] = new LongAdder();
+    }
+
+    this.lastSecond = new AtomicLong(currentSecond());
+  }
+
+  public void increment() {
+    long second = currentSecond();
+    this.advance(second);
+    this.buckets[(int) (second % this.buckets.length)].increment();
+    this.total.increment();
+  }
+
+  public long get() {
+    this.advance(currentSecond());
+    return this.total.sum();
+  }
+
+  public int getWindowSeconds() {
+    return this.buckets.length;
+  }
+
+  private void advance(long second) {
+    long last = this.lastSecond.get();
+    while (last < second) {
+      // Jump straight to the current second if the whole window is outdated.
+      long next = second - last > this.buckets.length ? second : last + 1;
+      if (this.lastSecond.compareAndSet(last, next)) {
+        for (long expired = Math.max(last + 1, next - this.buckets.length + 1); expired <= next; ++expired) {
+          this.total.add(-this.buckets[(int) (expired % this.buckets.length)].sumThenReset());
+        }
+      }
+
+      last = this.lastSecond.get();
+    }
+  }
+
+  private static long currentSecond() {
+    return System.currentTimeMillis() / 1000;
+  }
+}
@@ -17,132 +17,101 @@
 
 package net.elytrium.limbofilter.stats;
 
-import com.velocitypowered.api.scheduler.ScheduledTask;
-import com.velocitypowered.api.scheduler.Scheduler;
 import java.net.InetAddress;
-import java.util.HashMap;
-import java.util.LinkedList;
-import java.util.List;
-import java.util.Map;
-import java.util.concurrent.TimeUnit;
-import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.atomic.LongAdder;
-import net.elytrium.limbofilter.LimboFilter;
 import net.elytrium.limbofilter.Settings;
+import net.elytrium.limbofilter.utils.AddressUtils;
 
-public class Statistics {
+public class Statistics implements WindowedCounters {
 
   private final LongAdder blockedConnections = new LongAdder();
-  private final LongAdder connections = new LongAdder();
-  private final LongAdder pings = new LongAdder();
-  private final AtomicLong interpolatedCpsBefore = new AtomicLong();
-  private final AtomicLong interpolatedPpsBefore = new AtomicLong();
-  private final List<ScheduledTask> scheduledTaskList = new LinkedList<>();
-  private final Map<InetAddress, Integer> pingMap = new HashMap<>();
+  private volatile SlidingWindowCounter connections = new SlidingWindowCounter(Settings.IMP.MAIN.UNIT_OF_TIME_CPS);
+  private volatile SlidingWindowCounter pings = new SlidingWindowCounter(Settings.IMP.MAIN.UNIT_OF_TIME_PPS);
+  private volatile PingTable pingTable = new PingTable(Settings.IMP.MAIN.TCP_LISTENER.PING_TABLE_SIZE);
 
   public void addBlockedConnection() {
     this.blockedConnections.increment();
   }
 
   public void addConnection() {
-    this.connections.add(Settings.IMP.MAIN.UNIT_OF_TIME_CPS * 2L);
+    this.connections.increment();
   }
 
   public void addPing() {
-    this.pings.add(Settings.IMP.MAIN.UNIT_OF_TIME_CPS * 2L);
+    this.pings.increment();
   }
 
   public long getBlockedConnections() {
     return this.blockedConnections.longValue();
   }
 
+  @Override
   public long getConnections() {
-    return this.connections.longValue() / Settings.IMP.MAIN.UNIT_OF_TIME_CPS / 2L;
+    return this.connections.get();
   }
 
+  @Override
+  public int getConnectionsWindowSeconds() {
+    return this.connections.getWindowSeconds();
+  }
+
+  @Override
   public long getPings() {
-    return this.pings.longValue() / Settings.IMP.MAIN.UNIT_OF_TIME_CPS / 2L;
+    return this.pings.get();
+  }
+
+  @Override
+  public int getPingsWindowSeconds() {
+    return this.pings.getWindowSeconds();
   }
 
   public long getTotalConnection() {
     return this.getPings() + this.getConnections();
   }
 
-  public void restartUpdateTasks(LimboFilter plugin, Scheduler scheduler) {
-    synchronized (this.scheduledTaskList) {
-      this.scheduledTaskList.forEach(ScheduledTask::cancel);
-      this.scheduledTaskList.clear();
-
-      this.startUpdatingCps(plugin, scheduler);
-      this.startUpdatingPps(plugin, scheduler);
+  public void reload() {
+    if (this.connections.getWindowSeconds() != Settings.IMP.MAIN.UNIT_OF_TIME_CPS) {
+      this.connections = new SlidingWindowCounter(Settings.IMP.MAIN.UNIT_OF_TIME_CPS);
     }
-  }
 
-  private void startUpdatingCps(LimboFilter plugin, Scheduler scheduler) {
-    long delayInterpolate = Settings.IMP.MAIN.UNIT_OF_TIME_CPS * 1000L;
-
-    this.scheduledTaskList.add(scheduler
-        .buildTask(plugin, () -> this.interpolatedCpsBefore.set(Statistics.this.connections.longValue() / Settings.IMP.MAIN.UNIT_OF_TIME_CPS / 2L))
-        .delay(delayInterpolate, TimeUnit.MILLISECONDS)
-        .repeat(delayInterpolate, TimeUnit.MILLISECONDS)
-        .schedule());
-
-    long delay = delayInterpolate / Settings.IMP.MAIN.UNIT_OF_TIME_CPS / 2L;
-
-    this.scheduledTaskList.add(scheduler
-        .buildTask(plugin, () -> {
-          long current = Statistics.this.connections.longValue();
-          long before = Statistics.this.interpolatedCpsBefore.get();
+    if (this.pings.getWindowSeconds() != Settings.IMP.MAIN.UNIT_OF_TIME_PPS) {
+      this.pings = new SlidingWindowCounter(Settings.IMP.MAIN.UNIT_OF_TIME_PPS);
+    }
 
-          if (current >= before) {
-            Statistics.this.connections.add(-before);
-          }
-        })
-        .delay(delay, TimeUnit.MILLISECONDS)
-        .repeat(delay, TimeUnit.MILLISECONDS)
-        .schedule());
+    if (this.pingTable.getCapacity() != Settings.IMP.MAIN.TCP_LISTENER.PING_TABLE_SIZE) {
+      this.pingTable = new PingTable(Settings.IMP.MAIN.TCP_LISTENER.PING_TABLE_SIZE);
+    }
   }
 
-  private void startUpdatingPps(LimboFilter plugin, Scheduler scheduler) {
-    long delayInterpolate = Settings.IMP.MAIN.UNIT_OF_TIME_PPS * 1000L;
-
-    this.scheduledTaskList.add(scheduler
-        .buildTask(plugin, () -> this.interpolatedPpsBefore.set(Statistics.this.pings.longValue() / Settings.IMP.MAIN.UNIT_OF_TIME_PPS / 2L))
-        .delay(delayInterpolate, TimeUnit.MILLISECONDS)
-        .repeat(delayInterpolate, TimeUnit.MILLISECONDS)
-        .schedule());
-
-    long delay = delayInterpolate / Settings.IMP.MAIN.UNIT_OF_TIME_PPS / 2L;
-
-    this.scheduledTaskList.add(scheduler
-        .buildTask(plugin, () -> {
-          long current = Statistics.this.pings.longValue();
-          long before = Statistics.this.interpolatedPpsBefore.get();
-
-          if (current >= before) {
-            Statistics.this.pings.add(-before);
-          }
-        })
-        .delay(delay, TimeUnit.MILLISECONDS)
-        .repeat(delay, TimeUnit.MILLISECONDS)
-        .schedule());
+  public void updatePing(InetAddress address, int currentPing) {
+    byte[] bytes = address.getAddress();
+    this.updatePing(AddressUtils.getHigh(bytes), AddressUtils.getLow(bytes), currentPing);
   }
 
-  public void updatePing(InetAddress address, int currentPing) {
-    this.pingMap.merge(address, currentPing, (previousPing, newPing) -> (previousPing * 3 + newPing) / 4);
+  public void updatePing(long addressHigh, long addressLow, int currentPing) {
+    this.pingTable.update(addressHigh, addressLow, currentPing, Settings.IMP.MAIN.TCP_LISTENER.PING_EXPIRE_MILLIS);
   }
 
   public int getPing(InetAddress address) {
-    Integer ping = this.pingMap.get(address);
+    return PingTable.getSmoothedPing(this.getPingState(address));
+  }
 
-    if (ping == null) {
-      return -1;
-    } else {
-      return ping;
+  // Decoded with PingTable.getMinPing, getSmoothedPing and getPingVariation.
+  public long getPingState(InetAddress address) {
+    if (address == null) {
+      return PingTable.UNKNOWN;
     }
+
+    byte[] bytes = address.getAddress();
+    return this.pingTable.get(AddressUtils.getHigh(bytes), AddressUtils.getLow(bytes), Settings.IMP.MAIN.TCP_LISTENER.PING_EXPIRE_MILLIS);
   }
 
   public void removeAddress(InetAddress address) {
-    this.pingMap.remove(address);
+    byte[] bytes = address.getAddress();
+    this.removeAddress(AddressUtils.getHigh(bytes), AddressUtils.getLow(bytes));
+  }
+
+  public void removeAddress(long addressHigh, long addressLow) {
+    this.pingTable.remove(addressHigh, addressLow);
   }
 }
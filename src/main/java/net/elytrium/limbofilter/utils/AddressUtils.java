@@ -0,0 +1,95 @@
+/*
+ * Copyright (C) 2021 - 2025 Elytrium
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.elytrium.limbofilter.utils;
+
+import java.net.Inet4Address;
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+
+public class AddressUtils {
+
+  // IPv6 addresses from ffff::/16 are reserved, so IPv4 keys can't collide with IPv6 ones.
+  private static final long IPV4_KEY_MARKER = 0xFFFF_0000_0000_0000L;
+
+  public static long getSubnetKey(InetAddress address, int ipv4Prefix, int ipv6Prefix) {
+    byte[] bytes = address.getAddress();
+    if (address instanceof Inet4Address) {
+      long ip = ((bytes[0] & 0xFFL) << 24) | ((bytes[1] & 0xFFL) << 16) | ((bytes[2] & 0xFFL) << 8) | (bytes[3] & 0xFFL);
+      return IPV4_KEY_MARKER | (ip & prefixMask(ipv4Prefix, 32));
+    } else {
+      return readLong(bytes, 0) & prefixMask(ipv6Prefix, 64);
+    }
+  }
+
+  // IPv4 addresses are stored as IPv4-mapped IPv6 addresses (::ffff:a.b.c.d).
+  public static long getHigh(byte[] address) {
+    if (address.length == 4) {
+      return 0;
+    }
+
+    return readLong(address, 0);
+  }
+
+  public static long getLow(byte[] address) {
+    if (address.length == 4) {
+      return 0xFFFF_0000_0000L | ((address[0] & 0xFFL) << 24) | ((address[1] & 0xFFL) << 16) | ((address[2] & 0xFFL) << 8) | (address[3] & 0xFFL);
+    }
+
+    return readLong(address, 8);
+  }
+
+  public static String toString(long high, long low) {
+    byte[] bytes = new byte[16];
+    for (int i = 0; i < 8; ++i) {
+      bytes[i] = (byte) (high >>> (56 - i * 8));
+      bytes[i + 8] = (byte) (low >>> (56 - i * 8));
+    }
+
+    try {
+      // Returns Inet4Address for IPv4-mapped addresses.
+      return InetAddress.getByAddress(bytes).getHostAddress();
+    } catch (UnknownHostException e) {
+      throw new IllegalArgumentException(e);
+    }
+  }
+
+  public static long hash(long high, long low) {
+    long hash = high * 0x9E3779B97F4A7C15L ^ low;
+    hash ^= hash >>> 33;
+    hash *= 0xFF51AFD7ED558CCDL;
+    hash ^= hash >>> 33;
+    return hash;
+  }
+
+  private static long readLong(byte[] bytes, int offset) {
+    long result = 0;
+    for (int i = offset; i < offset + 8; ++i) {
+      result = (result << 8) | (bytes[i] & 0xFFL);
+    }
+
+    return result;
+  }
+
+  private static long prefixMask(int prefix, int bits) {
+    if (prefix <= 0) {
+      return 0;
+    }
+
+    return (-1L >>> (64 - bits)) & ~((1L << (bits - Math.min(prefix, bits))) - 1);
+  }
+}
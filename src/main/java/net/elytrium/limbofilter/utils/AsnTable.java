@@ -0,0 +1,158 @@
+/*
+ * Copyright (C) 2021 - 2025 Elytrium
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.elytrium.limbofilter.utils;
+
+import com.google.common.net.InetAddresses;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import net.elytrium.limbofilter.LimboFilter;
+
+// Longest prefix match over "<prefix>/<length> <asn>" lines, IPv4 prefixes are mapped to ::ffff:0:0/96.
+public class AsnTable {
+
+  public static final int UNKNOWN = -1;
+
+  private final long[] startHighs;
+  private final long[] startLows;
+  private final long[] endHighs;
+  private final long[] endLows;
+  private final int[] asns;
+  // Index of the closest enclosing prefix, -1 if there's none.
+  private final int[] parents;
+
+  private AsnTable(List<Prefix> prefixes) {
+    prefixes.sort((a, b) -> {
+      int compare = compare(a.startHigh, a.startLow, b.startHigh, b.startLow);
+      return compare != 0 ? compare : Integer.compare(a.length, b.length);
+    });
+
+    int size = prefixes.size();
+    this.startHighs = new long[size];
+    this.startLows = new long[size];
+    this.endHighs = new long[size];
+    this.endLows = new long[size];
+    this.asns = new int[size];
+    this.parents = new int[size];
+
+    Deque<Integer> enclosing = new ArrayDeque<>();
+    for (int i = 0; i < size; ++i) {
+      Prefix prefix = prefixes.get(i);
+      this.startHighs[i] = prefix.startHigh;
+      this.startLows[i] = prefix.startLow;
+      this.endHighs[i] = prefix.endHigh;
+      this.endLows[i] = prefix.endLow;
+      this.asns[i] = prefix.asn;
+
+      while (!enclosing.isEmpty() && compare(this.endHighs[enclosing.peek()], this.endLows[enclosing.peek()], prefix.startHigh, prefix.startLow) < 0) {
+        enclosing.pop();
+      }
+
+      this.parents[i] = enclosing.isEmpty() ? -1 : enclosing.peek();
+      enclosing.push(i);
+    }
+  }
+
+  public static AsnTable load(Path file) throws IOException {
+    List<Prefix> prefixes = new ArrayList<>();
+    try (BufferedReader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+      String line;
+      while ((line = reader.readLine()) != null) {
+        line = line.trim();
+        if (line.isEmpty() || line.charAt(0) == '#') {
+          continue;
+        }
+
+        String[] parts = line.split("\\s+");
+        int slash = parts[0].indexOf('/');
+        try {
+          if (parts.length < 2 || slash == -1) {
+            throw new IllegalArgumentException();
+          }
+
+          // Only accepts IP literals, a hostname here must not end up in a DNS lookup on the reload thread.
+          byte[] address = InetAddresses.forString(parts[0].substring(0, slash)).getAddress();
+          int length = Integer.parseInt(parts[0].substring(slash + 1)) + (address.length == 4 ? 96 : 0);
+          String asn = parts[1].regionMatches(true, 0, "AS", 0, 2) ? parts[1].substring(2) : parts[1];
+          prefixes.add(new Prefix(AddressUtils.getHigh(address), AddressUtils.getLow(address), length, Integer.parseUnsignedInt(asn)));
+        } catch (IllegalArgumentException e) {
+          LimboFilter.getLogger().warn("Skipping malformed line in {}: {}", file, line);
+        }
+      }
+    }
+
+    return new AsnTable(prefixes);
+  }
+
+  public int getAsn(long high, long low) {
+    int lowIndex = 0;
+    int highIndex = this.asns.length - 1;
+    int index = -1;
+    while (lowIndex <= highIndex) {
+      int middle = (lowIndex + highIndex) >>> 1;
+      if (compare(this.startHighs[middle], this.startLows[middle], high, low) <= 0) {
+        index = middle;
+        lowIndex = middle + 1;
+      } else {
+        highIndex = middle - 1;
+      }
+    }
+
+    while (index != -1 && compare(this.endHighs[index], this.endLows[index], high, low) < 0) {
+      index = this.parents[index];
+    }
+
+    return index == -1 ? UNKNOWN : this.asns[index];
+  }
+
+  public int size() {
+    return this.asns.length;
+  }
+
+  private static int compare(long highA, long lowA, long highB, long lowB) {
+    int compare = Long.compareUnsigned(highA, highB);
+    return compare != 0 ? compare : Long.compareUnsigned(lowA, lowB);
+  }
+
+  private static class Prefix {
+
+    private final long startHigh;
+    private final long startLow;
+    private final long endHigh;
+    private final long endLow;
+    private final int length;
+    private final int asn;
+
+    private Prefix(long high, long low, int length, int asn) {
+      long highMask = length <= 0 ? 0 : length >= 64 ? -1L : -1L << (64 - length);
+      long lowMask = length <= 64 ? 0 : length >= 128 ? -1L : -1L << (128 - length);
+      this.startHigh = high & highMask;
+      this.startLow = low & lowMask;
+      this.endHigh = this.startHigh | ~highMask;
+      this.endLow = this.startLow | ~lowMask;
+      this.length = length;
+      this.asn = asn;
+    }
+  }
+}
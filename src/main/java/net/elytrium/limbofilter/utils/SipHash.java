@@ -0,0 +1,81 @@
+/*
+ * Copyright (C) 2021 - 2025 Elytrium
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.elytrium.limbofilter.utils;
+
+// SipHash-2-4 over the UTF-16 code units of a string.
+public class SipHash {
+
+  private final long key0;
+  private final long key1;
+
+  public SipHash(long key0, long key1) {
+    this.key0 = key0;
+    this.key1 = key1;
+  }
+
+  public long hash(CharSequence input) {
+    // Doesn't escape, so it is scalar-replaced by the JIT.
+    long[] v = {
+        this.key0 ^ 0x736F6D6570736575L,
+        this.key1 ^ 0x646F72616E646F6DL,
+        this.key0 ^ 0x6C7967656E657261L,
+        this.key1 ^ 0x7465646279746573L
+    };
+
+    int length = input.length();
+    int fullWords = length & ~3;
+    for (int i = 0; i < fullWords; i += 4) {
+      compress(v, input.charAt(i) | (long) input.charAt(i + 1) << 16 | (long) input.charAt(i + 2) << 32 | (long) input.charAt(i + 3) << 48);
+    }
+
+    // Byte length in the top byte, like the reference padding.
+    long last = (long) (length * 2) << 56;
+    for (int i = fullWords; i < length; ++i) {
+      last |= (long) input.charAt(i) << ((i - fullWords) * 16);
+    }
+
+    compress(v, last);
+
+    v[2] ^= 0xFF;
+    for (int round = 0; round < 4; ++round) {
+      round(v);
+    }
+
+    return v[0] ^ v[1] ^ v[2] ^ v[3];
+  }
+
+  private static void compress(long[] v, long word) {
+    v[3] ^= word;
+    round(v);
+    round(v);
+    v[0] ^= word;
+  }
+
+  private static void round(long[] v) {
+    v[0] += v[1];
+    v[1] = Long.rotateLeft(v[1], 13) ^ v[0];
+    v[0] = Long.rotateLeft(v[0], 32);
+    v[2] += v[3];
+    v[3] = Long.rotateLeft(v[3], 16) ^ v[2];
+    v[0] += v[3];
+    v[3] = Long.rotateLeft(v[3], 21) ^ v[0];
+    v[2] += v[1];
+    v[1] = Long.rotateLeft(v[1], 17) ^ v[2];
+    v[2] = Long.rotateLeft(v[2], 32);
+  }
+}
@@ -0,0 +1,68 @@
+/*
+ * Copyright (C) 2021 - 2025 Elytrium
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.elytrium.limbofilter;
+
+import com.sun.management.ThreadMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.lang.ref.Reference;
+import java.util.function.Supplier;
+
+// Heap measurements for the memory benchmarks.
+public class MemoryMeter {
+
+  private static final int GC_RUNS = 3;
+
+  // Bytes the current thread allocates per object, all of them are kept reachable until the end so none can be optimized away.
+  public static double getAllocatedBytes(int count, Supplier<?> factory) {
+    ThreadMXBean bean = (ThreadMXBean) ManagementFactory.getThreadMXBean();
+    Object[] objects = new Object[count];
+    // The first pass also allocates whatever the factory needs on its first calls, e.g. for reflection.
+    for (int i = 0; i < count; ++i) {
+      objects[i] = factory.get();
+    }
+
+    long start = bean.getCurrentThreadAllocatedBytes();
+    for (int i = 0; i < count; ++i) {
+      objects[i] = factory.get();
+    }
+
+    long allocated = bean.getCurrentThreadAllocatedBytes() - start;
+    Reference.reachabilityFence(objects);
+    return (double) allocated / count;
+  }
+
+  // Bytes still used by the built object after the garbage made while building it is collected.
+  public static long getRetainedBytes(Supplier<?> factory) {
+    long start = getUsedMemory();
+    Object object = factory.get();
+    long retained = getUsedMemory() - start;
+    Reference.reachabilityFence(object);
+    return retained;
+  }
+
+  private static long getUsedMemory() {
+    MemoryMXBean bean = ManagementFactory.getMemoryMXBean();
+    for (int i = 0; i < GC_RUNS; ++i) {
+      bean.gc();
+    }
+
+    Runtime runtime = Runtime.getRuntime();
+    return runtime.totalMemory() - runtime.freeMemory();
+  }
+}
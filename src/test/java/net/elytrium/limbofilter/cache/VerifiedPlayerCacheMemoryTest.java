@@ -0,0 +1,97 @@
+/*
+ * Copyright (C) 2021 - 2025 Elytrium
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.elytrium.limbofilter.cache;
+
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+import net.elytrium.limbofilter.MemoryMeter;
+import org.junit.jupiter.api.Test;
+
+// Heap taken by each verified player, compared with the previous ConcurrentHashMap<String, CachedUser>.
+class VerifiedPlayerCacheMemoryTest {
+
+  private static final int PLAYERS = 200000;
+  // About ten players are verified per second.
+  private static final long EXPIRY_STEP_MILLIS = 100;
+
+  @Test
+  void entriesStayCompact() {
+    long expiry = System.currentTimeMillis() + TimeUnit.DAYS.toMillis(7);
+    long cacheBytes = MemoryMeter.getRetainedBytes(() -> {
+      VerifiedPlayerCache cache = new VerifiedPlayerCache(1, 2);
+      for (int i = 0; i < PLAYERS; ++i) {
+        cache.put(getUsername(i), getAddress(i), expiry + i * EXPIRY_STEP_MILLIS);
+      }
+
+      // The filter may still be resized in the background.
+      ForkJoinPool.commonPool().awaitQuiescence(10, TimeUnit.SECONDS);
+      return cache;
+    });
+    long mapBytes = MemoryMeter.getRetainedBytes(() -> {
+      Map<String, CachedUser> users = new ConcurrentHashMap<>();
+      for (int i = 0; i < PLAYERS; ++i) {
+        users.put(getUsername(i), new CachedUser(getAddress(i), expiry + i * EXPIRY_STEP_MILLIS));
+      }
+
+      return users;
+    });
+
+    double cacheEntryBytes = (double) cacheBytes / PLAYERS;
+    double mapEntryBytes = (double) mapBytes / PLAYERS;
+    System.out.printf("Verified player: %.1f bytes, previously %.1f bytes%n", cacheEntryBytes, mapEntryBytes);
+    assertTrue(cacheEntryBytes * 3 / 2 < mapEntryBytes, "A player takes " + cacheEntryBytes + " bytes, previously " + mapEntryBytes + " bytes");
+  }
+
+  private static String getUsername(int player) {
+    return "Player" + player;
+  }
+
+  private static InetAddress getAddress(int player) {
+    try {
+      return InetAddress.getByAddress(new byte[] {10, (byte) (player >> 16), (byte) (player >> 8), (byte) player});
+    } catch (UnknownHostException e) {
+      throw new IllegalArgumentException(e);
+    }
+  }
+
+  // The value the cache kept per player before the usernames were hashed.
+  private static class CachedUser {
+
+    private final InetAddress address;
+    private final long expiry;
+
+    CachedUser(InetAddress address, long expiry) {
+      this.address = address;
+      this.expiry = expiry;
+    }
+
+    InetAddress getAddress() {
+      return this.address;
+    }
+
+    long getExpiry() {
+      return this.expiry;
+    }
+  }
+}
@@ -0,0 +1,142 @@
+/*
+ * Copyright (C) 2021 - 2025 Elytrium
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.elytrium.limbofilter.cluster;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import org.junit.jupiter.api.Test;
+
+class ClusterNodeTest {
+
+  private static final String SECRET = "secret";
+  private static final long TIMEOUT_SECONDS = 5;
+
+  @Test
+  void deliversMessagesBetweenNodes() throws IOException, InterruptedException {
+    InetSocketAddress firstAddress = freeAddress();
+    InetSocketAddress secondAddress = freeAddress();
+    ClusterNode first = new ClusterNode(1, firstAddress, List.of(secondAddress), SECRET);
+    ClusterNode second = new ClusterNode(2, secondAddress, List.of(firstAddress), SECRET);
+    BlockingQueue<String> firstReceived = listen(first);
+    BlockingQueue<String> secondReceived = listen(second);
+    first.start();
+    second.start();
+    try {
+      first.broadcast(ClusterNode.STATISTICS, encode("from first"));
+      second.broadcast(ClusterNode.STATISTICS, encode("from second"));
+
+      assertEquals("from first", secondReceived.poll(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+      assertEquals("from second", firstReceived.poll(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+    } finally {
+      first.close();
+      second.close();
+    }
+  }
+
+  @Test
+  void dropsReplayedMessages() throws IOException, InterruptedException {
+    InetSocketAddress receiverAddress = freeAddress();
+    try (DatagramSocket eavesdropper = new DatagramSocket(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0))) {
+      eavesdropper.setSoTimeout((int) TimeUnit.SECONDS.toMillis(TIMEOUT_SECONDS));
+      ClusterNode sender = new ClusterNode(1, freeAddress(), List.of(receiverAddress, (InetSocketAddress) eavesdropper.getLocalSocketAddress()), SECRET);
+      ClusterNode receiver = new ClusterNode(2, receiverAddress, List.of(), SECRET);
+      BlockingQueue<String> received = listen(receiver);
+      sender.start();
+      receiver.start();
+      try {
+        sender.broadcast(ClusterNode.STATISTICS, encode("message"));
+        DatagramPacket packet = new DatagramPacket(new byte[2048], 2048);
+        eavesdropper.receive(packet);
+        assertEquals("message", received.poll(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+
+        for (int i = 0; i < 3; ++i) {
+          eavesdropper.send(new DatagramPacket(packet.getData(), packet.getLength(), receiverAddress));
+        }
+
+        sender.broadcast(ClusterNode.STATISTICS, encode("marker"));
+        assertEquals(List.of("marker"), receiveUntil(received, "marker"));
+      } finally {
+        sender.close();
+        receiver.close();
+      }
+    }
+  }
+
+  @Test
+  void dropsMessagesWithWrongSecret() throws IOException, InterruptedException {
+    InetSocketAddress receiverAddress = freeAddress();
+    ClusterNode forger = new ClusterNode(3, freeAddress(), List.of(receiverAddress), "another secret");
+    ClusterNode sender = new ClusterNode(1, freeAddress(), List.of(receiverAddress), SECRET);
+    ClusterNode receiver = new ClusterNode(2, receiverAddress, List.of(), SECRET);
+    BlockingQueue<String> received = listen(receiver);
+    forger.start();
+    sender.start();
+    receiver.start();
+    try {
+      forger.broadcast(ClusterNode.STATISTICS, encode("forged"));
+      // Lets the forged datagram arrive first, so the marker proves it was dropped.
+      Thread.sleep(100);
+      sender.broadcast(ClusterNode.STATISTICS, encode("marker"));
+      assertEquals(List.of("marker"), receiveUntil(received, "marker"));
+    } finally {
+      forger.close();
+      sender.close();
+      receiver.close();
+    }
+  }
+
+  private static BlockingQueue<String> listen(ClusterNode node) {
+    BlockingQueue<String> received = new LinkedBlockingQueue<>();
+    node.register(ClusterNode.STATISTICS, (nodeId, payload) -> received.add(StandardCharsets.UTF_8.decode(payload).toString()));
+    return received;
+  }
+
+  private static List<String> receiveUntil(BlockingQueue<String> received, String last) throws InterruptedException {
+    List<String> messages = new ArrayList<>();
+    String message;
+    do {
+      message = received.poll(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+      assertNotNull(message, "Timed out waiting for " + last);
+      messages.add(message);
+    } while (!message.equals(last));
+
+    return messages;
+  }
+
+  private static ByteBuffer encode(String message) {
+    return ByteBuffer.wrap(message.getBytes(StandardCharsets.UTF_8));
+  }
+
+  private static InetSocketAddress freeAddress() throws IOException {
+    try (DatagramSocket socket = new DatagramSocket(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0))) {
+      return (InetSocketAddress) socket.getLocalSocketAddress();
+    }
+  }
+}
@@ -0,0 +1,206 @@
+/*
+ * Copyright (C) 2021 - 2025 Elytrium
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.elytrium.limbofilter.cluster;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assertions.fail;
+
+import java.io.IOException;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import net.elytrium.limbofilter.stats.WindowedCounters;
+import org.junit.jupiter.api.Test;
+
+// Runs several proxies on the loopback interface and measures how fast every one of them sees the cluster-wide counters.
+class ClusterStatisticsTest {
+
+  private static final String SECRET = "secret";
+  private static final int NODES = 5;
+  private static final long INTERVAL_MILLIS = 50;
+  private static final long CONVERGENCE_TIMEOUT_MILLIS = 5000;
+
+  @Test
+  void convergesToClusterWideCounters() throws IOException, InterruptedException {
+    try (Simulation simulation = new Simulation()) {
+      long latency = simulation.awaitConvergence();
+      // Every proxy needs at most one interval to send its counters, the rest is scheduling and delivery.
+      assertTrue(latency < INTERVAL_MILLIS * 10, "Converged in " + latency + " ms");
+    }
+  }
+
+  @Test
+  void rescalesCountersToLocalWindow() throws IOException, InterruptedException {
+    try (Simulation simulation = new Simulation()) {
+      simulation.counters.get(0).windowSeconds = 2;
+      simulation.awaitConvergence();
+    }
+  }
+
+  @Test
+  void restartedNodeReplacesItsCounters() throws IOException, InterruptedException {
+    try (Simulation simulation = new Simulation()) {
+      simulation.awaitConvergence();
+
+      simulation.stop(0);
+      simulation.counters.get(0).connections = 1000;
+      simulation.start(0);
+
+      long deadline = System.currentTimeMillis() + INTERVAL_MILLIS * 10;
+      while (System.currentTimeMillis() < deadline) {
+        for (int i = 1; i < NODES; ++i) {
+          assertTrue(simulation.statistics.get(i).getNodeCount() <= NODES - 1, "The restarted node was counted twice");
+        }
+
+        Thread.sleep(5);
+      }
+
+      simulation.awaitConvergence();
+    }
+  }
+
+  private static InetSocketAddress freeAddress() throws IOException {
+    try (DatagramSocket socket = new DatagramSocket(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0))) {
+      return (InetSocketAddress) socket.getLocalSocketAddress();
+    }
+  }
+
+  private static class Simulation implements AutoCloseable {
+
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
+    private final List<InetSocketAddress> addresses = new ArrayList<>();
+    private final List<FixedCounters> counters = new ArrayList<>();
+    private final List<ClusterNode> nodes = new ArrayList<>();
+    private final List<ClusterStatistics> statistics = new ArrayList<>();
+
+    private Simulation() throws IOException {
+      for (int i = 0; i < NODES; ++i) {
+        this.addresses.add(freeAddress());
+        this.counters.add(new FixedCounters((i + 1) * 100, (i + 1) * 10));
+        this.nodes.add(null);
+        this.statistics.add(null);
+      }
+
+      for (int i = 0; i < NODES; ++i) {
+        this.start(i);
+      }
+
+      this.scheduler.scheduleAtFixedRate(() -> {
+        synchronized (this) {
+          this.statistics.forEach(ClusterStatistics::broadcast);
+        }
+      }, 0, INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+    private synchronized void start(int index) throws IOException {
+      List<InetSocketAddress> peers = new ArrayList<>(this.addresses);
+      peers.remove(index);
+      ClusterNode node = new ClusterNode(index + 1, this.addresses.get(index), peers, SECRET);
+      ClusterStatistics statistics = new ClusterStatistics(this.counters.get(index), node, INTERVAL_MILLIS);
+      node.start();
+      this.nodes.set(index, node);
+      this.statistics.set(index, statistics);
+    }
+
+    private synchronized void stop(int index) {
+      this.statistics.get(index).close();
+      this.nodes.get(index).close();
+    }
+
+    // Returns how long it took for every proxy to see the sum of the counters of all the proxies.
+    private long awaitConvergence() throws InterruptedException {
+      long startTime = System.currentTimeMillis();
+      while (!this.isConverged()) {
+        if (System.currentTimeMillis() - startTime > CONVERGENCE_TIMEOUT_MILLIS) {
+          fail("The cluster statistics didn't converge in " + CONVERGENCE_TIMEOUT_MILLIS + " ms");
+        }
+
+        Thread.sleep(1);
+      }
+
+      return System.currentTimeMillis() - startTime;
+    }
+
+    private boolean isConverged() {
+      for (int i = 0; i < NODES; ++i) {
+        FixedCounters local = this.counters.get(i);
+        long connections = 0;
+        long pings = 0;
+        for (FixedCounters counters : this.counters) {
+          connections += counters.connections * local.windowSeconds / counters.windowSeconds;
+          pings += counters.pings;
+        }
+
+        ClusterStatistics statistics = this.statistics.get(i);
+        if (local.connections + statistics.getConnections() != connections || local.pings + statistics.getPings() != pings) {
+          return false;
+        }
+
+        assertEquals(NODES - 1, statistics.getNodeCount());
+      }
+
+      return true;
+    }
+
+    @Override
+    public void close() throws InterruptedException {
+      this.scheduler.shutdownNow();
+      this.scheduler.awaitTermination(1, TimeUnit.SECONDS);
+      for (int i = 0; i < NODES; ++i) {
+        this.stop(i);
+      }
+    }
+  }
+
+  private static class FixedCounters implements WindowedCounters {
+
+    private volatile long connections;
+    private final long pings;
+    private volatile int windowSeconds = 1;
+
+    private FixedCounters(long connections, long pings) {
+      this.connections = connections;
+      this.pings = pings;
+    }
+
+    @Override
+    public long getConnections() {
+      return this.connections;
+    }
+
+    @Override
+    public int getConnectionsWindowSeconds() {
+      return this.windowSeconds;
+    }
+
+    @Override
+    public long getPings() {
+      return this.pings;
+    }
+
+    @Override
+    public int getPingsWindowSeconds() {
+      return 1;
+    }
+  }
+}
@@ -0,0 +1,82 @@
+/*
+ * Copyright (C) 2021 - 2025 Elytrium
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.elytrium.limbofilter.handler;
+
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.util.HashMap;
+import java.util.Map;
+import net.elytrium.limbofilter.MemoryMeter;
+import org.junit.jupiter.api.Test;
+
+// Bytes every filtered connection costs while it is in the filter limbo.
+class SessionMemoryTest {
+
+  private static final int SESSIONS = 10000;
+  // The handler with a HashMap<Integer, Integer> of frame rotations, booleans and posX/posZ fields, with compressed oops.
+  private static final int PREVIOUS_SESSION_BYTES = 144 + 48;
+  private static final int FRAMES = 3 * 3;
+
+  // The state of a session that hasn't reached the framed captcha, which is the case for most bots.
+  @Test
+  void sessionStaysCompact() throws ReflectiveOperationException {
+    Field unsafeField = Class.forName("sun.misc.Unsafe").getDeclaredField("theUnsafe");
+    unsafeField.setAccessible(true);
+    Object unsafe = unsafeField.get(null);
+    Method allocateInstance = unsafe.getClass().getMethod("allocateInstance", Class.class);
+    // Passed as an array, so no varargs array is allocated per call.
+    Object[] arguments = {BotFilterSessionHandler.class};
+
+    // Allocated without the constructor, which needs a running proxy, the layout is the same.
+    double bytes = MemoryMeter.getAllocatedBytes(SESSIONS, () -> {
+      try {
+        return allocateInstance.invoke(unsafe, arguments);
+      } catch (ReflectiveOperationException e) {
+        throw new IllegalStateException(e);
+      }
+    });
+
+    System.out.printf("Session: %.1f bytes, previously %d bytes%n", bytes, PREVIOUS_SESSION_BYTES);
+    assertTrue(bytes < PREVIOUS_SESSION_BYTES, "A session takes " + bytes + " bytes");
+  }
+
+  @Test
+  void frameRotationsStayCompact() {
+    double arrayBytes = MemoryMeter.getAllocatedBytes(SESSIONS, () -> {
+      int[] rotations = new int[FRAMES];
+      for (int frame = 0; frame < FRAMES; ++frame) {
+        ++rotations[frame];
+      }
+
+      return rotations;
+    });
+    double mapBytes = MemoryMeter.getAllocatedBytes(SESSIONS, () -> {
+      Map<Integer, Integer> rotations = new HashMap<>();
+      for (int frame = 0; frame < FRAMES; ++frame) {
+        rotations.merge(frame, 1, Integer::sum);
+      }
+
+      return rotations;
+    });
+
+    System.out.printf("Rotations of %d frames: %.1f bytes, previously %.1f bytes%n", FRAMES, arrayBytes, mapBytes);
+    assertTrue(arrayBytes * 4 < mapBytes, "The rotations take " + arrayBytes + " bytes, a map takes " + mapBytes + " bytes");
+  }
+}
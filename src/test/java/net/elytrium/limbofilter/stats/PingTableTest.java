@@ -0,0 +1,135 @@
+/*
+ * Copyright (C) 2021 - 2025 Elytrium
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.elytrium.limbofilter.stats;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import org.junit.jupiter.api.Test;
+
+class PingTableTest {
+
+  private static final long TTL_MILLIS = 60000;
+  private static final int ADDRESSES = 8192;
+
+  @Test
+  void keepsPingStatistics() {
+    PingTable table = new PingTable(1024);
+    assertEquals(PingTable.UNKNOWN, table.get(0, ipv4(1), TTL_MILLIS));
+
+    table.update(0, ipv4(1), 100, TTL_MILLIS);
+    table.update(0, ipv4(1), 20, TTL_MILLIS);
+    long state = table.get(0, ipv4(1), TTL_MILLIS);
+    assertEquals(20, PingTable.getMinPing(state));
+    assertEquals(90, PingTable.getSmoothedPing(state));
+
+    table.update(0x20010DB800000000L, 1, 50, TTL_MILLIS);
+    assertEquals(50, PingTable.getSmoothedPing(table.get(0x20010DB800000000L, 1, TTL_MILLIS)));
+
+    table.remove(0, ipv4(1));
+    assertEquals(PingTable.UNKNOWN, table.get(0, ipv4(1), TTL_MILLIS));
+  }
+
+  @Test
+  void forgetsExpiredPings() {
+    PingTable table = new PingTable(1024);
+    table.update(0, ipv4(1), 100, TTL_MILLIS);
+    assertEquals(PingTable.UNKNOWN, table.get(0, ipv4(1), 0));
+  }
+
+  @Test
+  void staysBounded() {
+    PingTable table = new PingTable(1024);
+    for (int i = 0; i < ADDRESSES; ++i) {
+      table.update(0, ipv4(i), getSample(i), TTL_MILLIS);
+    }
+
+    int known = 0;
+    for (int i = 0; i < ADDRESSES; ++i) {
+      if (table.get(0, ipv4(i), TTL_MILLIS) != PingTable.UNKNOWN) {
+        ++known;
+      }
+    }
+
+    assertTrue(known <= 1024, "The table keeps " + known + " addresses");
+    assertEquals(getSample(ADDRESSES - 1), PingTable.getSmoothedPing(table.get(0, ipv4(ADDRESSES - 1), TTL_MILLIS)));
+  }
+
+  // Every address always gets the same sample, so any state read for it has to decode to that sample.
+  @Test
+  void survivesConcurrentAccess() throws Exception {
+    PingTable table = new PingTable(256);
+    int threads = Math.max(4, Runtime.getRuntime().availableProcessors());
+    ExecutorService executor = Executors.newFixedThreadPool(threads);
+    CountDownLatch start = new CountDownLatch(1);
+    AtomicLong reads = new AtomicLong();
+    List<Future<?>> futures = new ArrayList<>();
+    try {
+      for (int thread = 0; thread < threads; ++thread) {
+        int role = thread % 3;
+        futures.add(executor.submit(() -> {
+          start.await();
+          ThreadLocalRandom random = ThreadLocalRandom.current();
+          for (int i = 0; i < 500000; ++i) {
+            int address = random.nextInt(ADDRESSES);
+            if (role == 0) {
+              table.update(0, ipv4(address), getSample(address), TTL_MILLIS);
+            } else if (role == 1) {
+              long state = table.get(0, ipv4(address), TTL_MILLIS);
+              if (state != PingTable.UNKNOWN) {
+                assertEquals(getSample(address), PingTable.getMinPing(state));
+                assertEquals(getSample(address), PingTable.getSmoothedPing(state));
+                reads.incrementAndGet();
+              }
+            } else {
+              table.remove(0, ipv4(address));
+            }
+          }
+
+          return null;
+        }));
+      }
+
+      start.countDown();
+      for (Future<?> future : futures) {
+        future.get(60, TimeUnit.SECONDS);
+      }
+    } finally {
+      executor.shutdownNow();
+    }
+
+    assertTrue(reads.get() > 0, "No ping was read");
+  }
+
+  private static long ipv4(int address) {
+    return 0xFFFF00000000L | (address & 0xFFFFFFFFL);
+  }
+
+  private static int getSample(int address) {
+    return address % 1000 + 1;
+  }
+}